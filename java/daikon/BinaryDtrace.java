@@ -0,0 +1,534 @@
+package daikon;
+
+import static daikon.FileIO.ParseState;
+import static daikon.FileIO.RecordType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.interning.qual.*;
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A compact binary encoding of the samples in a {@code .dtrace} file. The text format remains the
+ * interchange format; the binary format exists to reduce disk usage and parsing time for large
+ * traces. Declarations are not part of a binary trace: they must be supplied to Daikon in a
+ * separate {@code .decls} file.
+ *
+ * <p>A binary trace consists of a header, followed by a sequence of records. All multi-byte
+ * quantities are big-endian, as written by {@link DataOutputStream}.
+ *
+ * <pre>
+ *   header:   int MAGIC, short VERSION
+ *   PPT:      byte PPT_RECORD, int ppt_id, string ppt_name
+ *   SAMPLE:   byte SAMPLE_RECORD, int ppt_id, int payload_length, payload
+ *   payload:  byte has_nonce, [int nonce], packed modbits, value*
+ * </pre>
+ *
+ * A PPT record assigns a small integer id to a program point name; every SAMPLE record refers to
+ * its program point by that id. The modbits of the {@code num_tracevars} variables are packed four
+ * to a byte. A value follows for each variable whose modbit is not {@link
+ * ValueTuple#MISSING_NONSENSICAL}. Its encoding is determined by the variable's rep type: a long
+ * for integral scalars, a double for floats, and a length-prefixed UTF-8 string for strings; arrays
+ * are an int length followed by that many elements. A string of length -1 is null. Because each
+ * sample records its own length, a reader can skip samples for program points that are not
+ * included in this run (see {@code --ppt-omit-pattern}).
+ *
+ * <p>Binary traces are produced from text traces by {@link daikon.tools.DtraceToBinary}. They are
+ * read transparently by {@link FileIO#read_data_trace_file}, which recognizes them by their magic
+ * number; the file name need only contain ".dtrace", as for any other data trace file.
+ */
+public final class BinaryDtrace {
+
+  /** Nobody should ever instantiate a BinaryDtrace. */
+  private BinaryDtrace() {
+    throw new Error();
+  }
+
+  /** First four bytes of every binary trace: "DKBT". */
+  public static final int MAGIC = 0x444B4254;
+
+  /** The version of the format written by {@link Writer}. */
+  public static final short VERSION = 1;
+
+  /** Record tag that introduces a program point name and its id. */
+  static final byte PPT_RECORD = 1;
+
+  /** Record tag that introduces a sample. */
+  static final byte SAMPLE_RECORD = 2;
+
+  /** Encoding of an integral scalar (int, boolean, hashcode, char). */
+  private static final int KIND_LONG = 0;
+  /** Encoding of a floating-point scalar. */
+  private static final int KIND_DOUBLE = 1;
+  /** Encoding of a string scalar. */
+  private static final int KIND_STRING = 2;
+  /** Encoding of an array of integral values. */
+  private static final int KIND_LONG_ARRAY = 3;
+  /** Encoding of an array of floating-point values. */
+  private static final int KIND_DOUBLE_ARRAY = 4;
+  /** Encoding of an array of strings. */
+  private static final int KIND_STRING_ARRAY = 5;
+
+  /**
+   * Returns the encoding used for values of the given rep type. This is the same distinction that
+   * {@link ProglangType#parse_value} makes when it parses the text representation.
+   */
+  static int value_kind(ProglangType rep_type) {
+    int dims = rep_type.dimensions();
+    if (dims == 0) {
+      if (rep_type.baseIsString()) return KIND_STRING;
+      if (rep_type.baseIsFloat()) return KIND_DOUBLE;
+      return KIND_LONG;
+    } else if (dims == 1) {
+      if (rep_type.baseIsString()) return KIND_STRING_ARRAY;
+      if (rep_type.baseIsFloat()) return KIND_DOUBLE_ARRAY;
+      return KIND_LONG_ARRAY;
+    } else {
+      throw new Error("Can't encode a value of type " + rep_type.format());
+    }
+  }
+
+  /** Writes one non-missing value using the given encoding. */
+  static void write_value(DataOutputStream out, int kind, Object val) throws IOException {
+    switch (kind) {
+      case KIND_LONG:
+        out.writeLong(((Long) val).longValue());
+        break;
+      case KIND_DOUBLE:
+        out.writeDouble(((Double) val).doubleValue());
+        break;
+      case KIND_STRING:
+        write_string(out, (String) val);
+        break;
+      case KIND_LONG_ARRAY:
+        {
+          long[] a = (long[]) val;
+          out.writeInt(a.length);
+          for (long elt : a) out.writeLong(elt);
+          break;
+        }
+      case KIND_DOUBLE_ARRAY:
+        {
+          double[] a = (double[]) val;
+          out.writeInt(a.length);
+          for (double elt : a) out.writeDouble(elt);
+          break;
+        }
+      case KIND_STRING_ARRAY:
+        {
+          String[] a = (String[]) val;
+          out.writeInt(a.length);
+          for (String elt : a) write_string(out, elt);
+          break;
+        }
+      default:
+        throw new Error("Unknown value kind " + kind);
+    }
+  }
+
+  /** Reads one value with the given encoding. The result is interned. */
+  static /*@Interned*/ Object read_value(DataInputStream in, int kind) throws IOException {
+    switch (kind) {
+      case KIND_LONG:
+        return Intern.internedLong(in.readLong());
+      case KIND_DOUBLE:
+        return Intern.internedDouble(in.readDouble());
+      case KIND_STRING:
+        {
+          String s = read_string(in);
+          if (s == null) {
+            throw new IOException("null string value with a non-missing modbit");
+          }
+          return s;
+        }
+      case KIND_LONG_ARRAY:
+        {
+          long[] a = new long[in.readInt()];
+          for (int i = 0; i < a.length; i++) a[i] = in.readLong();
+          return Intern.intern(a);
+        }
+      case KIND_DOUBLE_ARRAY:
+        {
+          double[] a = new double[in.readInt()];
+          for (int i = 0; i < a.length; i++) a[i] = in.readDouble();
+          return Intern.intern(a);
+        }
+      case KIND_STRING_ARRAY:
+        {
+          /*@Nullable*/ /*@Interned*/ String[] a = new /*@Nullable*/ /*@Interned*/ String[in.readInt()];
+          for (int i = 0; i < a.length; i++) a[i] = read_string(in);
+          return Intern.intern(a);
+        }
+      default:
+        throw new Error("Unknown value kind " + kind);
+    }
+  }
+
+  /**
+   * Returns true if the named file is a binary trace, as indicated by its first four bytes. Files
+   * whose names end in ".gz" are decompressed first. Returns false for standard input, the Chicory
+   * socket, URLs, and files that cannot be read.
+   */
+  public static boolean is_binary_dtrace(String filename) {
+    if (filename.equals("-") || filename.equals("+")) return false;
+    if (filename.startsWith("file:") || filename.startsWith("jar:")) return false;
+    File file = new File(filename);
+    if (!file.isFile() || file.length() < 4) return false;
+    DataInputStream in = null;
+    try {
+      in = open_input(filename);
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // nothing to do
+        }
+      }
+    }
+  }
+
+  /** Opens the named file for reading, decompressing it if its name ends in ".gz". */
+  private static DataInputStream open_input(String filename) throws IOException {
+    InputStream stream = new FileInputStream(filename);
+    if (filename.endsWith(".gz")) {
+      stream = new GZIPInputStream(stream, 1 << 16);
+    }
+    return new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+  }
+
+  /** Writes a string as an int length followed by its UTF-8 bytes; null is written as length -1. */
+  private static void write_string(DataOutputStream out, /*@Nullable*/ String s)
+      throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /** Reads a string written by {@link #write_string}. The result is interned. */
+  private static /*@Nullable*/ /*@Interned*/ String read_string(DataInputStream in)
+      throws IOException {
+    int len = in.readInt();
+    if (len == -1) return null;
+    byte[] bytes = new byte[len];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8).intern();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Writing
+  ///
+
+  /**
+   * Writes samples in the binary trace format. The caller supplies samples in the form that {@link
+   * FileIO#read_data_trace_record} produces them: only the first {@code ppt.num_tracevars} slots of
+   * the values and modbits are written.
+   */
+  public static final class Writer implements Closeable {
+
+    /** Where the trace is written. */
+    private final DataOutputStream out;
+
+    /** Ids of the program points whose PPT record has already been written. */
+    private final HashMap<PptTopLevel, Integer> ppt_ids = new HashMap<PptTopLevel, Integer>();
+
+    /** Scratch buffer for the payload of the sample being written; reused across samples. */
+    private final ByteArrayOutputStream payload_bytes = new ByteArrayOutputStream(1024);
+
+    private final DataOutputStream payload = new DataOutputStream(payload_bytes);
+
+    /** Creates a writer to the named file, compressing it if the name ends in ".gz". */
+    public Writer(String filename) throws IOException {
+      this(
+          filename.endsWith(".gz")
+              ? new GZIPOutputStream(new FileOutputStream(filename), 1 << 16)
+              : new FileOutputStream(filename));
+    }
+
+    /** Creates a writer to the given stream and writes the header. */
+    public Writer(OutputStream stream) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+    }
+
+    /** Writes one sample for ppt. */
+    public void write_sample(
+        PptTopLevel ppt, /*@Nullable*/ Object[] vals, int[] mods, /*@Nullable*/ Integer nonce)
+        throws IOException {
+      Integer id = ppt_ids.get(ppt);
+      if (id == null) {
+        id = ppt_ids.size();
+        ppt_ids.put(ppt, id);
+        out.writeByte(PPT_RECORD);
+        out.writeInt(id);
+        write_string(out, ppt.name());
+      }
+
+      int num_tracevars = ppt.num_tracevars;
+      payload_bytes.reset();
+      if (nonce == null) {
+        payload.writeByte(0);
+      } else {
+        payload.writeByte(1);
+        payload.writeInt(nonce.intValue());
+      }
+
+      // Pack the modbits, four to a byte.
+      int packed = 0;
+      for (int i = 0; i < num_tracevars; i++) {
+        packed |= (mods[i] & 0x3) << ((i & 0x3) * 2);
+        if ((i & 0x3) == 0x3) {
+          payload.writeByte(packed);
+          packed = 0;
+        }
+      }
+      if ((num_tracevars & 0x3) != 0) {
+        payload.writeByte(packed);
+      }
+
+      for (VarInfo vi : ppt.var_infos) {
+        if (vi.is_static_constant) continue;
+        int index = vi.value_index;
+        if (index >= num_tracevars) continue;
+        if (ValueTuple.modIsMissingNonsensical(mods[index])) continue;
+        Object val = vals[index];
+        assert val != null : vi;
+        write_value(payload, value_kind(vi.rep_type), val);
+      }
+
+      out.writeByte(SAMPLE_RECORD);
+      out.writeInt(id);
+      out.writeInt(payload_bytes.size());
+      payload_bytes.writeTo(out);
+    }
+
+    /** Flushes and closes the underlying stream. */
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reading
+  ///
+
+  /**
+   * Reads samples from a binary trace. A Reader is stored in {@link ParseState#binary_reader}; when
+   * that field is set, {@link FileIO#read_data_trace_record} delegates to {@link #read_record}.
+   *
+   * <p>Error messages report the record number in place of the line number.
+   */
+  public static final class Reader {
+
+    /** The trace being read. */
+    private final DataInputStream in;
+
+    /** Program point names, indexed by the ids assigned in PPT records. */
+    private final ArrayList</*@Nullable*/ String> ppt_names = new ArrayList</*@Nullable*/ String>();
+
+    /**
+     * Program points, indexed by id. An element is null if the program point has not yet been
+     * looked up, or if it is omitted from this run (in which case the corresponding element of
+     * ppt_omitted is true).
+     */
+    private final ArrayList</*@Nullable*/ PptTopLevel> ppts = new ArrayList</*@Nullable*/ PptTopLevel>();
+
+    private final BitSet ppt_omitted = new BitSet();
+
+    /** Number of records read so far. */
+    private int record_number = 0;
+
+    /** Opens the named binary trace and checks its header. */
+    public Reader(String filename) throws IOException {
+      in = open_input(filename);
+      int magic = in.readInt();
+      if (magic != MAGIC) {
+        throw new IOException(filename + " is not a binary dtrace file");
+      }
+      short version = in.readShort();
+      if (version != VERSION) {
+        throw new Daikon.TerminationMessage(
+            String.format(
+                "Binary dtrace file %s has version %d; this Daikon reads version %d",
+                filename, version, VERSION));
+      }
+    }
+
+    /** Returns the number of records read so far. */
+    public int get_record_number() {
+      return record_number;
+    }
+
+    /** Closes the underlying stream. */
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /**
+     * Reads the next sample into state, setting {@code state.rtype} to SAMPLE, or to EOF at the end
+     * of the trace. PPT records are consumed silently, as are samples for omitted program points.
+     */
+    /*@RequiresNonNull("FileIO.data_trace_state")*/
+    public void read_record(ParseState state) throws IOException {
+      while (true) {
+        int tag = in.read();
+        if (tag == -1) {
+          state.rtype = RecordType.EOF;
+          return;
+        }
+        record_number++;
+        state.reader.setLineNumber(record_number);
+
+        if ((FileIO.dkconfig_max_line_number > 0)
+            && (record_number > FileIO.dkconfig_max_line_number)) {
+          state.rtype = RecordType.TRUNCATED;
+          return;
+        }
+
+        if (tag == PPT_RECORD) {
+          int id = in.readInt();
+          String name = read_string(in);
+          if (name == null) {
+            throw new Daikon.TerminationMessage("Null program point name", state);
+          }
+          while (ppt_names.size() <= id) {
+            ppt_names.add(null);
+            ppts.add(null);
+          }
+          ppt_names.set(id, FileIO.user_mod_ppt_name(name));
+          continue;
+        }
+        if (tag != SAMPLE_RECORD) {
+          throw new Daikon.TerminationMessage("Bad record tag " + tag, state);
+        }
+
+        int id = in.readInt();
+        int payload_length = in.readInt();
+        PptTopLevel ppt = lookup_ppt(state, id);
+        if (ppt == null) {
+          skip_fully(payload_length);
+          continue;
+        }
+
+        read_sample(state, ppt);
+        return;
+      }
+    }
+
+    /**
+     * Returns the program point with the given id, or null if it is omitted from this run. Throws
+     * TerminationMessage if it is neither omitted nor declared.
+     */
+    private /*@Nullable*/ PptTopLevel lookup_ppt(ParseState state, int id) {
+      if (id >= ppt_names.size() || ppt_names.get(id) == null) {
+        throw new Daikon.TerminationMessage("Sample refers to undefined ppt id " + id, state);
+      }
+      PptTopLevel ppt = ppts.get(id);
+      if (ppt != null || ppt_omitted.get(id)) {
+        return ppt;
+      }
+      String ppt_name = ppt_names.get(id);
+      assert ppt_name != null : "@AssumeAssertion(nullness): checked above";
+      if (!FileIO.ppt_included(ppt_name)) {
+        ppt_omitted.set(id);
+        return null;
+      }
+      ppt = state.all_ppts.get(ppt_name);
+      if (ppt == null) {
+        throw new Daikon.TerminationMessage(
+            "No declaration was provided for program point " + ppt_name, state);
+      }
+      ppts.set(id, ppt);
+      return ppt;
+    }
+
+    private void skip_fully(int n) throws IOException {
+      while (n > 0) {
+        int skipped = in.skipBytes(n);
+        if (skipped <= 0) throw new EOFException();
+        n -= skipped;
+      }
+    }
+
+    /**
+     * Reads the payload of a sample for ppt. Modbits are adjusted exactly as the text reader adjusts
+     * them (see {@code dkconfig_add_changed}); since values are interned, a value is unchanged iff
+     * it is the same object as the previous value.
+     */
+    /*@RequiresNonNull("FileIO.data_trace_state")*/
+    private void read_sample(ParseState state, PptTopLevel ppt) throws IOException {
+      int num_tracevars = ppt.num_tracevars;
+      int vals_array_size = ppt.var_infos.length - ppt.num_static_constant_vars;
+
+      Integer nonce = null;
+      if (in.readByte() != 0) {
+        nonce = in.readInt();
+      }
+
+      /*@Nullable*/ Object[] vals = new /*@Nullable*/ Object[vals_array_size];
+      int[] mods = new int[vals_array_size];
+      int packed = 0;
+      for (int i = 0; i < num_tracevars; i++) {
+        if ((i & 0x3) == 0) packed = in.readUnsignedByte();
+        mods[i] = (packed >> ((i & 0x3) * 2)) & 0x3;
+      }
+
+      /*@Nullable*/ Object[] oldvals = FileIO.ppt_to_binary_vals.get(ppt);
+      if (oldvals == null) {
+        // A fresh array contains only nulls, so the first value of every
+        // variable is treated as modified, as for the text format.
+        oldvals = new /*@Nullable*/ Object[num_tracevars];
+        FileIO.ppt_to_binary_vals.put(ppt, oldvals);
+      }
+
+      for (VarInfo vi : ppt.var_infos) {
+        if (vi.is_static_constant) continue;
+        int index = vi.value_index;
+        if (index >= num_tracevars) continue;
+        int mod = mods[index];
+        if (mod == ValueTuple.MISSING_FLOW) {
+          throw new Daikon.TerminationMessage("Bad modbit '" + mod + "'", state);
+        }
+        if (ValueTuple.modIsMissingNonsensical(mod)) {
+          if (FileIO.debug_missing && !vi.canBeMissing) {
+            System.out.printf(
+                "Var %s ppt %s at record %d missing%n", vi, ppt.name(), record_number);
+          }
+          vi.canBeMissing = true;
+          vals[index] = null;
+        } else {
+          Object val = read_value(in, value_kind(vi.rep_type));
+          if (val == oldvals[index]) {
+            if (!FileIO.dkconfig_add_changed) {
+              mod = ValueTuple.UNMODIFIED;
+            }
+          } else {
+            mod = ValueTuple.MODIFIED;
+          }
+          vals[index] = val;
+        }
+        mods[index] = mod;
+        oldvals[index] = vals[index];
+      }
+
+      state.ppt = ppt;
+      state.nonce = nonce;
+      state.vt = ValueTuple.makeUninterned(vals, mods);
+      state.rtype = RecordType.SAMPLE;
+    }
+  }
+}
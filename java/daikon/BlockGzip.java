@@ -0,0 +1,281 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A block-compressed text trace file with an index for random access. The file is an ordinary
+ * {@code .dtrace.gz} file that any gzip reader (including Daikon's) can read, but it consists of
+ * many independent gzip members ("blocks"), each holding a series of complete records. A sidecar
+ * index file, whose name is the trace file's name plus {@code .idx}, gives the offset and length of
+ * each block, and the program point name and nonce of each sample in it. Given the index, a reader
+ * can decompress just the blocks that contain the records it needs.
+ *
+ * <p>The index is a text file. After a header line, each block is described by a line {@code B
+ * offset length}, followed by a line {@code D} if the block contains records other than samples
+ * (declarations, comments, and the like), followed by a line {@code S nonce ppt-name} for each
+ * sample in the block. The nonce is {@code -} if the sample has none. The last line records the
+ * size of the trace file, so that an incomplete index, or one that no longer matches its trace, is
+ * ignored.
+ *
+ * <p>Use {@link daikon.tools.DtraceToBlockGzip} to create a block-compressed trace and its index.
+ */
+public final class BlockGzip {
+  private BlockGzip() {
+    throw new Error("do not instantiate");
+  }
+
+  /** Uncompressed size after which a block is ended at the next record boundary. */
+  public static final int BLOCK_SIZE = 1 << 16;
+
+  private static final String INDEX_HEADER = "# block-gzip dtrace index";
+  private static final String INDEX_TRAILER = "# end of index, trace size ";
+  private static final String NONCE_HEADER = "this_invocation_nonce";
+
+  /** Returns the name of the index file for the given block-compressed trace file. */
+  public static String index_filename(String filename) {
+    return filename + ".idx";
+  }
+
+  /** A block of a block-compressed trace, as described by its index. */
+  public static final class Block {
+    /** Offset of the block in the trace file. */
+    public final long offset;
+    /** Length of the block, in bytes. */
+    public final int length;
+    /** True if the block contains any records that are not samples. */
+    public boolean has_other = false;
+    /** The ppt name of each sample in the block. */
+    public final List<String> ppt_names = new ArrayList<String>();
+    /** The nonce of each sample in the block (null if it has none); parallel to ppt_names. */
+    public final List</*@Nullable*/ Integer> nonces = new ArrayList</*@Nullable*/ Integer>();
+
+    public Block(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Returns true if a record whose first line is the given line is a sample, rather than a
+   * declaration, comment, or other header.
+   */
+  static boolean is_sample_header(String line) {
+    return !(FileIO.isComment(line)
+        || line.startsWith("decl-version")
+        || line.startsWith("input-language")
+        || line.startsWith("var-comparability")
+        || line.equals("VarComparability")
+        || line.equals("ListImplementors")
+        || line.equals(FileIO.declaration_header)
+        || line.startsWith("ppt "));
+  }
+
+  /**
+   * Reads the index of the given trace file. Returns null if there is no index, or if the index
+   * does not match the trace file.
+   */
+  public static /*@Nullable*/ List<Block> read_index(String filename) throws IOException {
+    File index_file = new File(index_filename(filename));
+    if (!index_file.exists()) {
+      return null;
+    }
+    String trailer = INDEX_TRAILER + new File(filename).length();
+    List<Block> blocks = new ArrayList<Block>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(index_file), UTF_8));
+    try {
+      if (!INDEX_HEADER.equals(reader.readLine())) {
+        return null;
+      }
+      Block block = null;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.startsWith("S ")) {
+          if (block == null) {
+            throw new IOException("Malformed index " + index_file + ": " + line);
+          }
+          int space = line.indexOf(' ', 2);
+          String nonce = line.substring(2, space);
+          block.nonces.add(nonce.equals("-") ? null : Integer.valueOf(nonce));
+          block.ppt_names.add(line.substring(space + 1));
+        } else if (line.startsWith("B ")) {
+          String[] fields = line.split(" ");
+          block = new Block(Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+          blocks.add(block);
+        } else if (line.equals("D") && block != null) {
+          block.has_other = true;
+        } else if (line.startsWith(INDEX_TRAILER)) {
+          return line.equals(trailer) ? blocks : null;
+        } else {
+          throw new IOException("Malformed index " + index_file + ": " + line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    // The index is incomplete
+    return null;
+  }
+
+  /**
+   * Returns a stream of the decompressed contents of the given blocks of the trace file, in order.
+   * Each block is read and decompressed only when the stream reaches it.
+   */
+  public static InputStream open_blocks(String filename, final List<Block> blocks)
+      throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(filename, "r");
+    Enumeration<InputStream> members =
+        new Enumeration<InputStream>() {
+          int next = 0;
+
+          public boolean hasMoreElements() {
+            return next < blocks.size();
+          }
+
+          public InputStream nextElement() {
+            Block block = blocks.get(next++);
+            byte[] bytes = new byte[block.length];
+            try {
+              file.seek(block.offset);
+              file.readFully(bytes);
+              return new GZIPInputStream(new ByteArrayInputStream(bytes));
+            } catch (IOException e) {
+              throw new Error(e);
+            }
+          }
+        };
+    return new SequenceInputStream(members) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        file.close();
+      }
+    };
+  }
+
+  /**
+   * Writes a block-compressed trace and its index. Lines are written one at a time; blocks end only
+   * at the blank lines that separate records.
+   */
+  public static class Writer implements Closeable {
+
+    private final OutputStream out;
+    private final PrintWriter index;
+
+    /** Offset in the output at which the current block will be written. */
+    private long offset = 0;
+
+    /** The uncompressed contents of the current block. */
+    private ByteArrayOutputStream contents = new ByteArrayOutputStream();
+
+    /** The samples and other records in the current block. */
+    private Block block = new Block(0, 0);
+
+    /** Number of lines of the current record that have been written; 0 between records. */
+    private int record_lines = 0;
+
+    /** Ppt name of the current record, if it is a sample. */
+    private /*@Nullable*/ String sample_ppt = null;
+
+    /** Nonce of the current record, if it is a sample with a nonce. */
+    private /*@Nullable*/ Integer sample_nonce = null;
+
+    /** The line most recently written. */
+    private /*@Nullable*/ String previous_line = null;
+
+    /** Creates a trace file with the given name, and its index. */
+    public Writer(String filename) throws IOException {
+      out = new BufferedOutputStream(new FileOutputStream(filename));
+      index =
+          new PrintWriter(
+              new OutputStreamWriter(new FileOutputStream(index_filename(filename)), UTF_8));
+      index.println(INDEX_HEADER);
+    }
+
+    /** Writes one line of a text trace. */
+    public void write_line(String line) throws IOException {
+      if (line.equals("")) {
+        end_record();
+        contents.write('\n');
+        if (contents.size() >= BLOCK_SIZE) {
+          end_block();
+        }
+        return;
+      }
+      if (record_lines == 0) {
+        if (is_sample_header(line)) {
+          sample_ppt = line;
+        } else {
+          block.has_other = true;
+        }
+      } else if (sample_ppt != null && record_lines == 2 && NONCE_HEADER.equals(previous_line)) {
+        try {
+          sample_nonce = Integer.valueOf(line);
+        } catch (NumberFormatException e) {
+          // Leave it to FileIO to report the malformed nonce.
+        }
+      }
+      record_lines++;
+      previous_line = line;
+      contents.write(line.getBytes(UTF_8));
+      contents.write('\n');
+    }
+
+    /** Records the current record, if it is a sample, in the current block. */
+    private void end_record() {
+      if (sample_ppt != null) {
+        block.ppt_names.add(sample_ppt);
+        block.nonces.add(sample_nonce);
+      }
+      record_lines = 0;
+      sample_ppt = null;
+      sample_nonce = null;
+    }
+
+    /** Compresses and writes the current block, and writes its index entries. */
+    private void end_block() throws IOException {
+      if (contents.size() == 0) {
+        return;
+      }
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.size() / 4);
+      GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+      contents.writeTo(gzip);
+      gzip.close();
+      compressed.writeTo(out);
+
+      index.println("B " + offset + " " + compressed.size());
+      if (block.has_other) {
+        index.println("D");
+      }
+      for (int i = 0; i < block.ppt_names.size(); i++) {
+        Integer nonce = block.nonces.get(i);
+        index.println(
+            "S " + (nonce == null ? "-" : nonce.toString()) + " " + block.ppt_names.get(i));
+      }
+
+      offset += compressed.size();
+      contents.reset();
+      block = new Block(offset, 0);
+    }
+
+    /** Ends the last block, and writes the index trailer. */
+    public void close() throws IOException {
+      if (record_lines > 0) {
+        // Terminate the last record, so that it stays separate from any
+        // record that follows it when blocks are concatenated.
+        write_line("");
+      }
+      end_block();
+      out.close();
+      index.println(INDEX_TRAILER + offset);
+      index.close();
+    }
+  }
+}
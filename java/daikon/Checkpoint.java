@@ -0,0 +1,198 @@
+package daikon;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Logger;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * The state of a Daikon run that is partway through reading its trace files, saved so that the run
+ * can be resumed if it is interrupted. A checkpoint holds the program points with their invariants,
+ * the invocations that are waiting for their exits, the previous values used to compute modbits,
+ * and the position in the trace files: the files that have been completely read, and the line up
+ * to which the current file has been read.
+ *
+ * <p>Checkpoints are written by {@link FileIO} every {@code dkconfig_interval} samples when Daikon
+ * is run with {@code --checkpoint}. Each checkpoint replaces the previous one atomically, so a
+ * crash while writing a checkpoint leaves the previous one intact. Running Daikon again with
+ * {@code --resume} and the same arguments continues from the last checkpoint.
+ */
+public final class Checkpoint implements Serializable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  // Variables starting with dkconfig_ should only be set via the
+  // daikon.config.Configuration interface.
+  /**
+   * Integer. When Daikon is run with {@code --checkpoint}, the number of samples between
+   * checkpoints.
+   */
+  public static int dkconfig_interval = 1000000;
+
+  public static final Logger debug = Logger.getLogger("daikon.Checkpoint");
+
+  /** The file to which checkpoints are written, or null if checkpoints are not written. */
+  public static /*@Nullable*/ File checkpoint_file = null;
+
+  /** The checkpoint from which the current run is resuming, until its position is reached. */
+  static /*@Nullable*/ Checkpoint resumed = null;
+
+  /** The value of FileIO.samples_processed when the last checkpoint was written. */
+  private static long samples_at_checkpoint = 0;
+
+  /** The trace files that have been completely read in this run (including any resumed run). */
+  private static List<String> finished_files = new ArrayList<String>();
+
+  // The saved state
+
+  PptMap all_ppts;
+  /*@Nullable*/ Boolean new_decl_format;
+  InvocationTable call_hashmap;
+  Stack<FileIO.Invocation> call_stack;
+  HashMap<PptTopLevel, String[]> ppt_to_value_reps;
+  long samples_processed;
+  List<String> files_done;
+  /** The trace file being read when the checkpoint was written. */
+  String file;
+  /** The number of lines of file that had been read when the checkpoint was written. */
+  int line;
+
+  private Checkpoint(PptMap all_ppts, String file, int line) {
+    this.all_ppts = all_ppts;
+    this.new_decl_format = FileIO.new_decl_format;
+    this.call_hashmap = FileIO.call_hashmap;
+    this.call_stack = FileIO.call_stack;
+    this.ppt_to_value_reps = FileIO.ppt_to_value_reps;
+    this.samples_processed = FileIO.samples_processed;
+    this.files_done = finished_files;
+    this.file = file;
+    this.line = line;
+  }
+
+  /**
+   * Called after each sample has been processed. Writes a checkpoint if checkpoints were requested
+   * and enough samples have been processed since the last one.
+   */
+  static void sample_processed(FileIO.ParseState state) {
+    if (checkpoint_file == null
+        || FileIO.samples_processed - samples_at_checkpoint < dkconfig_interval) {
+      return;
+    }
+    // Only the position in a text file can be recorded.
+    if (state.binary_reader != null
+        || state.filename.equals("standard input")
+        || state.filename.equals("chicory socket")) {
+      return;
+    }
+    samples_at_checkpoint = FileIO.samples_processed;
+
+    // Samples held back for coalescing are not part of the saved state
+    FileIO.flush_coalesced_samples();
+    // Nor are samples waiting for a worker thread
+    FileIO.drain_inference_workers(state);
+    write(new Checkpoint(state.all_ppts, state.filename, state.reader.getLineNumber()));
+  }
+
+  /**
+   * Resets the checkpoint state of a previous run in this JVM, as for the other statics reset by
+   * {@link Daikon#cleanup}.
+   */
+  static void reset() {
+    checkpoint_file = null;
+    resumed = null;
+    samples_at_checkpoint = 0;
+    finished_files = new ArrayList<String>();
+  }
+
+  /** Called when a trace file has been completely read. */
+  static void file_finished(String filename) {
+    finished_files.add(filename);
+  }
+
+  /** Writes the checkpoint to a temporary file, then replaces checkpoint_file with it. */
+  /*@RequiresNonNull("checkpoint_file")*/
+  private static void write(Checkpoint checkpoint) {
+    debug.fine("Writing checkpoint after " + checkpoint.samples_processed + " samples");
+    File tmp = new File(checkpoint_file.getPath() + ".tmp");
+    try {
+      UtilMDE.writeObject(checkpoint, tmp);
+      Files.move(
+          tmp.toPath(),
+          checkpoint_file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new Error("Unable to write checkpoint " + checkpoint_file, e);
+    }
+  }
+
+  /**
+   * Reads the checkpoint in checkpoint_file, restores the trace-reading state it holds, and returns
+   * its program points. The trace files will be read from the point at which the checkpoint was
+   * written.
+   */
+  /*@RequiresNonNull("checkpoint_file")*/
+  public static PptMap resume() {
+    Checkpoint checkpoint;
+    try {
+      checkpoint = (Checkpoint) UtilMDE.readObject(checkpoint_file);
+    } catch (FileNotFoundException e) {
+      throw new Daikon.TerminationMessage("Checkpoint file " + checkpoint_file + " not found");
+    } catch (InvalidClassException e) {
+      throw new Daikon.TerminationMessage(
+          "Checkpoint " + checkpoint_file + " was written by a different version of Daikon");
+    } catch (IOException e) {
+      throw new Error("Unable to read checkpoint " + checkpoint_file, e);
+    } catch (ClassNotFoundException e) {
+      throw new Error("Unable to read checkpoint " + checkpoint_file, e);
+    }
+
+    if (checkpoint.new_decl_format != null) {
+      FileIO.new_decl_format = checkpoint.new_decl_format;
+    }
+    FileIO.call_hashmap = checkpoint.call_hashmap;
+    FileIO.call_stack = checkpoint.call_stack;
+    FileIO.ppt_to_value_reps = checkpoint.ppt_to_value_reps;
+    FileIO.samples_processed = checkpoint.samples_processed;
+    samples_at_checkpoint = checkpoint.samples_processed;
+    finished_files = new ArrayList<String>(checkpoint.files_done);
+    resumed = checkpoint;
+    if (!Daikon.dkconfig_quiet) {
+      System.out.printf(
+          "Resuming after %d samples, at line %d of %s%n",
+          checkpoint.samples_processed, checkpoint.line, checkpoint.file);
+    }
+    return checkpoint.all_ppts;
+  }
+
+  /** Returns true if the named trace file was completely read before the checkpoint was written. */
+  static boolean skip_file(String filename) {
+    return resumed != null && resumed.files_done.contains(filename);
+  }
+
+  /**
+   * If the checkpoint being resumed was written while reading this trace file, skips the lines that
+   * had already been read.
+   */
+  static void skip_to_resume_point(FileIO.ParseState state) throws IOException {
+    if (resumed == null || !resumed.file.equals(state.filename)) {
+      return;
+    }
+    LineNumberReader reader = state.reader;
+    while (reader.getLineNumber() < resumed.line) {
+      if (reader.readLine() == null) {
+        throw new Daikon.TerminationMessage(
+            state.filename + " is shorter than when checkpoint " + checkpoint_file + " was written");
+      }
+    }
+    resumed = null;
+  }
+}
@@ -237,6 +237,9 @@ public final class Daikon {
   // Whether we want the memory monitor activated
   private static boolean use_mem_monitor = false;
 
+  /** If true, resume from the checkpoint named by --checkpoint. */
+  private static boolean resume = false;
+
   /** Whether Daikon should print its version number and date. */
   public static boolean noversion_output = false;
 
@@ -291,6 +294,8 @@ public final class Daikon {
   // Configuration options
   public static final String server_SWITCH =
       "server"; //YOAV: server mode for Daikon: reads dtrace files as they appear
+  public static final String checkpoint_SWITCH = "checkpoint";
+  public static final String resume_SWITCH = "resume";
   public static final String config_SWITCH = "config";
   public static final String config_option_SWITCH = "config_option";
   // Debugging
@@ -548,8 +553,17 @@ public final class Daikon {
 
     // Load declarations and splitters
     load_spinfo_files(spinfo_files);
-    all_ppts = load_decls_files(decls_files);
-    load_map_files(all_ppts, map_files);
+    if (resume) {
+      if (Checkpoint.checkpoint_file == null) {
+        throw new Daikon.TerminationMessage(
+            "--" + resume_SWITCH + " requires --" + checkpoint_SWITCH);
+      }
+      // The checkpoint includes the declarations and mappings
+      all_ppts = Checkpoint.resume();
+    } else {
+      all_ppts = load_decls_files(decls_files);
+      load_map_files(all_ppts, map_files);
+    }
 
     all_ppts.trimToSize();
 
@@ -723,6 +737,8 @@ public final class Daikon {
     var_omit_regexp = null;
     server_dir = null;
     use_mem_monitor = false;
+    resume = false;
+    Checkpoint.reset();
 
     proto_invs.clear();
   }
@@ -787,6 +803,8 @@ public final class Daikon {
           new LongOpt(var_omit_regexp_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           // Configuration options
           new LongOpt(server_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(checkpoint_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(resume_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(config_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(config_option_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           // Debugging
@@ -1060,6 +1078,19 @@ public final class Daikon {
                   "Could not open config file in server directory " + server_dir);
             }
             break;
+          } else if (checkpoint_SWITCH.equals(option_name)) {
+            if (Checkpoint.checkpoint_file != null) {
+              throw new Daikon.TerminationMessage(
+                  "multiple checkpoint files supplied on command line: "
+                      + Checkpoint.checkpoint_file
+                      + " "
+                      + getOptarg(g));
+            }
+            Checkpoint.checkpoint_file = new File(getOptarg(g));
+            break;
+          } else if (resume_SWITCH.equals(option_name)) {
+            resume = true;
+            break;
 
             // Configuration options
 
@@ -1524,6 +1555,11 @@ public final class Daikon {
    */
   public static void createUpperPpts(PptMap all_ppts) {
 
+    if (PptTopLevel.dkconfig_merge_threads > 1
+        && ParallelMerge.merge(all_ppts, PptTopLevel.dkconfig_merge_threads)) {
+      return;
+    }
+
     // Process each ppt that doesn't have a parent
     // (mergeInvs is called on a root, and recursively processes children)
     for (PptTopLevel ppt : all_ppts.pptIterable()) {
@@ -2039,6 +2075,22 @@ public final class Daikon {
           String.format("Finished reading %d samples", FileIO.samples_processed));
     }
 
+    if (PptTopLevel.dkconfig_converge_samples > 0 && !Daikon.dkconfig_quiet) {
+      long skipped = 0;
+      int converged_ppts = 0;
+      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+        if (ppt.num_skipped_samples() > 0) {
+          skipped += ppt.num_skipped_samples();
+          converged_ppts++;
+        }
+      }
+      if (skipped > 0) {
+        System.out.printf(
+            "Skipped %d samples at %s that had converged%n",
+            skipped, UtilMDE.nplural(converged_ppts, "program point"));
+      }
+    }
+
     if (all_ppts.size() == 0) {
       String message = "No program point declarations were found.";
       if (FileIO.omitted_declarations != 0) {
@@ -2138,6 +2190,22 @@ public final class Daikon {
       undoOpts(all_ppts);
     }
 
+    if (PptTopLevel.dkconfig_max_ternary_slices > 0 && !Daikon.dkconfig_quiet) {
+      long skipped = 0;
+      int budgeted_ppts = 0;
+      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+        if (ppt.num_skipped_ternary_slices() > 0) {
+          skipped += ppt.num_skipped_ternary_slices();
+          budgeted_ppts++;
+        }
+      }
+      if (skipped > 0) {
+        System.out.printf(
+            "Skipped %d ternary slices at %s that exceeded the ternary slice budget%n",
+            skipped, UtilMDE.nplural(budgeted_ppts, "program point"));
+      }
+    }
+
     // Debug print information about equality sets
     if (debugEquality.isLoggable(Level.FINE)) {
       for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
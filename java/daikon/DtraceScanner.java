@@ -0,0 +1,372 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A LineNumberReader over a memory-mapped, uncompressed {@code .dtrace} file. It supports the
+ * ordinary line-at-a-time interface that {@link FileIO} uses for every record type, and in
+ * addition provides methods that examine the next line in place, directly from the mapped bytes,
+ * without building a String: {@link #skip_line_if_equals}, {@link #read_modbit_line}, and {@link
+ * #read_integer_line}. {@link FileIO} uses these for the lines of a sample that are read most
+ * often: the nonce header, variable names, unchanged values, and modbits.
+ *
+ * <p>Files larger than 2GB are mapped a window at a time. Lines may end in "\n", "\r\n", or "\r",
+ * as for LineNumberReader. Characters can also be read one at a time, as UTF-8.
+ *
+ * @see FileIO#dkconfig_mmap_dtrace
+ */
+public class DtraceScanner extends LineNumberReader {
+
+  /** Size of the region of the file that is mapped at once. No line may be longer than this. */
+  private static final int WINDOW_SIZE = 1 << 28;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long file_size;
+
+  /** The currently mapped region of the file. */
+  private MappedByteBuffer window;
+
+  /** File offset of the first byte of window. */
+  private long window_start;
+
+  /** File offset of the first byte of window that is not mapped. */
+  private long window_end;
+
+  /** File offset of the start of the next line. */
+  private long pos = 0;
+
+  /** Number of lines read. */
+  private int linenum = 0;
+
+  /** Position and line number saved by {@link #mark}. */
+  private long mark_pos = -1;
+
+  private int mark_linenum = 0;
+
+  private char mark_pending_low = 0;
+
+  /**
+   * The low surrogate of a supplementary character whose high surrogate {@link #read} has
+   * returned, or 0.
+   */
+  private char pending_low = 0;
+
+  /** Buffer into which a line is copied before it is decoded; grows as needed. */
+  private byte[] scratch = new byte[256];
+
+  /** Maps the named file for reading. */
+  public DtraceScanner(String filename) throws IOException {
+    // All reading is done by this class; the superclass's stream is never used.
+    super(new StringReader(""));
+    file = new RandomAccessFile(filename, "r");
+    channel = file.getChannel();
+    file_size = channel.size();
+    map(0);
+  }
+
+  /** Maps the window that begins at the given file offset. */
+  /*@EnsuresNonNull("window")*/
+  private void map(/*>>>@UnknownInitialization DtraceScanner this,*/ long start)
+      throws IOException {
+    window_start = start;
+    long len = Math.min(WINDOW_SIZE, file_size - start);
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+    window_end = start + len;
+  }
+
+  /** Returns the byte at the given file offset, which must be less than file_size. */
+  private byte get(long offset) throws IOException {
+    if (offset >= window_end || offset < window_start) {
+      map(offset);
+    }
+    return window.get((int) (offset - window_start));
+  }
+
+  /** Returns the offset of the terminator of the line that starts at pos, or file_size. */
+  private long find_eol() throws IOException {
+    long p = pos;
+    while (p < file_size) {
+      byte b = get(p);
+      if (b == '\n' || b == '\r') {
+        return p;
+      }
+      p++;
+      if (p - pos > WINDOW_SIZE) {
+        throw new IOException(
+            String.format("Line %d is longer than %d bytes", linenum + 1, WINDOW_SIZE));
+      }
+    }
+    return file_size;
+  }
+
+  /** Moves past the line whose terminator is at eol. */
+  private void consume_line(long eol) throws IOException {
+    pos = eol;
+    if (pos < file_size) {
+      byte b = get(pos++);
+      if (b == '\r' && pos < file_size && get(pos) == '\n') {
+        pos++;
+      }
+    }
+    linenum++;
+  }
+
+  @Override
+  public /*@Nullable*/ String readLine() throws IOException {
+    if (pos >= file_size) {
+      return null;
+    }
+    long eol = find_eol();
+    int len = (int) (eol - pos);
+    if (len > scratch.length) {
+      scratch = new byte[Math.max(len, scratch.length * 2)];
+    }
+    for (int i = 0; i < len; i++) {
+      scratch[i] = get(pos + i);
+    }
+    String result = new String(scratch, 0, len, UTF_8);
+    if (pending_low != 0) {
+      result = pending_low + result;
+      pending_low = 0;
+    }
+    consume_line(eol);
+    return result;
+  }
+
+  /**
+   * If the next line is exactly s, consumes it and returns true. Otherwise, consumes nothing and
+   * returns false. No String is created. A string containing non-ASCII characters is never equal
+   * to a line.
+   */
+  public boolean skip_line_if_equals(String s) throws IOException {
+    if (pos >= file_size) {
+      return false;
+    }
+    int len = s.length();
+    if (pos + len > file_size) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (get(pos + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    long eol = pos + len;
+    if (eol < file_size) {
+      byte b = get(eol);
+      if (b != '\n' && b != '\r') {
+        return false;
+      }
+    }
+    consume_line(eol);
+    return true;
+  }
+
+  /**
+   * Consumes the next line without creating a String. Returns false, consuming nothing, at the end
+   * of the file.
+   */
+  public boolean skip_line() throws IOException {
+    if (pos >= file_size) {
+      return false;
+    }
+    consume_line(find_eol());
+    return true;
+  }
+
+  /**
+   * If the next line is a modbit ("0", "1", or "2"), consumes it and returns its value. Otherwise,
+   * consumes nothing and returns -1.
+   */
+  public int read_modbit_line() throws IOException {
+    if (pos >= file_size) {
+      return -1;
+    }
+    byte b = get(pos);
+    if (b < '0' || b > '2') {
+      return -1;
+    }
+    long eol = pos + 1;
+    if (eol < file_size) {
+      byte term = get(eol);
+      if (term != '\n' && term != '\r') {
+        return -1;
+      }
+    }
+    consume_line(eol);
+    return b - '0';
+  }
+
+  /**
+   * Reads the next line, which must be a decimal integer, and returns its value, or returns null at
+   * the end of the file. The digits are parsed in place.
+   *
+   * @throws NumberFormatException if the line is not an integer
+   */
+  public /*@Nullable*/ Integer read_integer_line() throws IOException {
+    if (pos >= file_size) {
+      return null;
+    }
+    long eol = find_eol();
+    long p = pos;
+    boolean negative = false;
+    if (p < eol && get(p) == '-') {
+      negative = true;
+      p++;
+    }
+    if (p == eol || eol - p > 10) {
+      throw not_an_integer(eol);
+    }
+    long value = 0;
+    for (; p < eol; p++) {
+      byte b = get(p);
+      if (b < '0' || b > '9') {
+        throw not_an_integer(eol);
+      }
+      value = value * 10 + (b - '0');
+    }
+    if (negative) {
+      value = -value;
+    }
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw not_an_integer(eol);
+    }
+    consume_line(eol);
+    return Integer.valueOf((int) value);
+  }
+
+  /** Returns an exception for a line that read_integer_line could not parse. */
+  private NumberFormatException not_an_integer(long eol) throws IOException {
+    byte[] bytes = new byte[(int) (eol - pos)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = get(pos + i);
+    }
+    return new NumberFormatException("For input string: \"" + new String(bytes, UTF_8) + "\"");
+  }
+
+  @Override
+  public void mark(int readAheadLimit) {
+    mark_pos = pos;
+    mark_linenum = linenum;
+    mark_pending_low = pending_low;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    if (mark_pos == -1) {
+      throw new IOException("Stream not marked");
+    }
+    pos = mark_pos;
+    linenum = mark_linenum;
+    pending_low = mark_pending_low;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public int getLineNumber() {
+    return linenum;
+  }
+
+  @Override
+  public void setLineNumber(int lineNumber) {
+    linenum = lineNumber;
+  }
+
+  /**
+   * Reads a character, decoding the UTF-8 bytes at pos. As with LineNumberReader, each line
+   * terminator is returned as a single {@code '\n'}. Malformed bytes are read as U+FFFD.
+   */
+  @Override
+  public int read() throws IOException {
+    if (pending_low != 0) {
+      char c = pending_low;
+      pending_low = 0;
+      return c;
+    }
+    if (pos >= file_size) {
+      return -1;
+    }
+    int lead = get(pos) & 0xFF;
+    if (lead == '\n' || lead == '\r') {
+      consume_line(pos);
+      return '\n';
+    }
+    if (lead < 0x80) {
+      pos++;
+      return lead;
+    }
+    int n = (lead >= 0xF8) ? 1 : (lead >= 0xF0) ? 4 : (lead >= 0xE0) ? 3 : (lead >= 0xC0) ? 2 : 1;
+    if (n == 1 || pos + n > file_size) {
+      pos++;
+      return 0xFFFD;
+    }
+    int cp = lead & (0x7F >> n);
+    for (int i = 1; i < n; i++) {
+      int b = get(pos + i) & 0xFF;
+      if ((b & 0xC0) != 0x80) {
+        pos++;
+        return 0xFFFD;
+      }
+      cp = (cp << 6) | (b & 0x3F);
+    }
+    pos += n;
+    if (Character.isSupplementaryCodePoint(cp)) {
+      pending_low = Character.lowSurrogate(cp);
+      return Character.highSurrogate(cp);
+    }
+    return cp;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || off + len > cbuf.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    int n = 0;
+    while (n < len) {
+      int c = read();
+      if (c < 0) {
+        break;
+      }
+      cbuf[off + n++] = (char) c;
+    }
+    return (n == 0 && len > 0) ? -1 : n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n < 0) {
+      throw new IllegalArgumentException("skip value is negative");
+    }
+    long skipped = 0;
+    while (skipped < n && read() >= 0) {
+      skipped++;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean ready() {
+    return pos < file_size || pending_low != 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    file.close();
+    super.close();
+  }
+}
@@ -97,6 +97,16 @@ public class DynamicConstants implements Serializable {
   /** Number of samples received. */
   int sample_cnt = 0;
 
+  // For the check at the start of add(), which most samples pass: the
+  // value indices and values of the variables in con_list, and the value
+  // indices of the variables in missing_list that are not missing out of
+  // bounds (-1 for a static constant).
+  // Static constants in con_list never change and are left out.  Null if
+  // the lists have changed since the arrays were built.
+  private transient int /*@Nullable*/ [] con_indices = null;
+  private transient /*@Interned*/ Object /*@Nullable*/ [] con_vals = null;
+  private transient int /*@Nullable*/ [] missing_indices = null;
+
   /**
    * Class used to indicate, for each variable, whether it is constant (see boolean field
    * "constant"). If it is, then the class also stores its constant value and its sample count.
@@ -170,6 +180,16 @@ public class DynamicConstants implements Serializable {
       this.vi = vi;
     }
 
+    // Interning is lost when an object is serialized and deserialized.
+    // Manually re-intern val, which is compared to sample values with ==.
+    @SuppressWarnings("interning") // re-interning
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      if (val != null) {
+        val = Intern.intern(val);
+      }
+    }
+
     /**
      * Returns whether the specified variable is currently a constant OR was a constant at the
      * beginning of constants processing.
@@ -270,6 +290,17 @@ public class DynamicConstants implements Serializable {
 
     // System.out.println("DynamicConstants.add : " + vt.toString(ppt.var_infos));
 
+    // Usually every constant keeps its value and every missing variable
+    // stays missing; then only the counts change.
+    if (!Debug.logDetail() && unchanged(vt)) {
+      for (int i = 0; i < con_list.size(); i++) {
+        con_list.get(i).count += count;
+      }
+      sample_cnt += count;
+      return;
+    }
+    con_indices = null;
+
     List<Constant> non_missing = new ArrayList<Constant>();
     List<Constant> non_con = new ArrayList<Constant>();
 
@@ -380,6 +411,77 @@ public class DynamicConstants implements Serializable {
     }
   }
 
+  /**
+   * Returns true if, in vt, each variable in con_list has its constant value and each variable in
+   * missing_list is missing; that is, if add would change nothing but the counts.
+   */
+  private boolean unchanged(ValueTuple vt) {
+    if (con_indices == null) {
+      build_check_arrays();
+    }
+    int[] indices = con_indices;
+    /*@Interned*/ Object[] values = con_vals;
+    int[] missing = missing_indices;
+    assert indices != null && values != null && missing != null;
+
+    /*@Nullable*/ Object[] vals = vt.vals;
+    int[] mods = vt.mods;
+    for (int k = 0; k < indices.length; k++) {
+      int index = indices[k];
+      int mod = mods[index];
+      if (mod == ValueTuple.MISSING_FLOW
+          || mod == ValueTuple.MISSING_NONSENSICAL
+          || vals[index] != values[k]) {
+        return false;
+      }
+    }
+    for (int k = 0; k < missing.length; k++) {
+      int index = missing[k];
+      if (index == -1) {
+        return false;
+      }
+      int mod = mods[index];
+      if (mod != ValueTuple.MISSING_FLOW && mod != ValueTuple.MISSING_NONSENSICAL) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Sets con_indices, con_vals, and missing_indices from con_list and missing_list. */
+  private void build_check_arrays() {
+    int num_cons = 0;
+    for (Constant con : con_list) {
+      if (!con.vi.is_static_constant) num_cons++;
+    }
+    int[] indices = new int[num_cons];
+    /*@Interned*/ Object[] values = new /*@Interned*/ Object[num_cons];
+    int k = 0;
+    for (Constant con : con_list) {
+      if (con.vi.is_static_constant) continue;
+      assert con.val != null : con;
+      indices[k] = con.vi.value_index;
+      values[k] = con.val;
+      k++;
+    }
+
+    // add ignores variables that are missing out of bounds
+    int num_missing = 0;
+    for (Constant con : missing_list) {
+      if (!con.vi.missingOutOfBounds()) num_missing++;
+    }
+    int[] missing = new int[num_missing];
+    k = 0;
+    for (Constant con : missing_list) {
+      if (con.vi.missingOutOfBounds()) continue;
+      missing[k++] = con.vi.is_static_constant ? -1 : con.vi.value_index;
+    }
+
+    con_indices = indices;
+    con_vals = values;
+    missing_indices = missing;
+  }
+
   /** Returns whether the specified variable is missing in this ValueTuple. */
   private boolean missing(VarInfo vi, ValueTuple vt) {
 
@@ -511,6 +613,14 @@ public class DynamicConstants implements Serializable {
     if (NIS.dkconfig_enabled) instantiate_constant_suppressions(noncons, all_list);
   }
 
+  /**
+   * Returns whether v1 and v2 are compatible. Like {@link PptTopLevel#is_slice_ok(VarInfo, VarInfo,
+   * VarInfo)}, asks the variable with the smaller varinfo_index.
+   */
+  private static boolean compatible_in_order(VarInfo v1, VarInfo v2) {
+    return (v1.varinfo_index <= v2.varinfo_index) ? v1.compatible(v2) : v2.compatible(v1);
+  }
+
   /**
    * Instantiate views and invariants across each combination of vars from list1 and list2. If each
    * item in a new slice was a constant, the constant values are applied.
@@ -606,37 +716,54 @@ public class DynamicConstants implements Serializable {
 
     // Ternary slices/invariants.  Note that if a variable is in both
     // leader lists, it is only added when it is in order (to prevent
-    // creating the slice twice).
+    // creating the slice twice).  A ternary slice needs its variables to be
+    // pairwise compatible, so incompatible pairs are skipped before
+    // considering any third variable.
+    List<Constant[]> ternary_cons = new ArrayList<Constant[]>();
+    List<VarInfo[]> ternary_vis = new ArrayList<VarInfo[]>();
     for (Constant con1 : leaders1) {
       for (Constant con2 : leaders2) {
         if ((con2.vi.varinfo_index < con1.vi.varinfo_index) && leaders1.contains(con2)) continue;
+        if (!compatible_in_order(con1.vi, con2.vi)) continue;
         for (Constant con3 : leaders2) {
           if ((con3.vi.varinfo_index < con2.vi.varinfo_index)
               || ((con3.vi.varinfo_index < con1.vi.varinfo_index) && leaders1.contains(con3)))
             continue;
+          if (!compatible_in_order(con1.vi, con3.vi) || !compatible_in_order(con2.vi, con3.vi)) {
+            continue;
+          }
           Constant[] con_arr = {con1, con2, con3};
           Arrays.sort(con_arr, ConIndexComparator.getInstance());
           assert (con_arr[0].vi.varinfo_index <= con_arr[1].vi.varinfo_index)
               && (con_arr[1].vi.varinfo_index <= con_arr[2].vi.varinfo_index);
           if (!ppt.is_slice_ok(con_arr[0].vi, con_arr[1].vi, con_arr[2].vi)) continue;
 
-          PptSlice3 slice3 = new PptSlice3(ppt, con_arr[0].vi, con_arr[1].vi, con_arr[2].vi);
-          slice3.instantiate_invariants();
-          if ((con_arr[0].count > 0) && (con_arr[1].count > 0) && (con_arr[2].count > 0)) {
-            assert con_arr[0].val != null
-                : "@AssumeAssertion(nullness): dependent: val != null when count>0";
-            assert con_arr[1].val != null
-                : "@AssumeAssertion(nullness): dependent: val != null when count>0";
-            assert con_arr[2].val != null
-                : "@AssumeAssertion(nullness): dependent: val != null when count>0";
-            slice3.add_val_bu(
-                con_arr[0].val, con_arr[1].val, con_arr[2].val, mod, mod, mod, con_arr[0].count);
-          }
-          new_views.add(slice3);
+          ternary_cons.add(con_arr);
+          ternary_vis.add(new VarInfo[] {con_arr[0].vi, con_arr[1].vi, con_arr[2].vi});
         }
       }
     }
 
+    // Instantiate the ternary slices that fit in the program point's budget
+    boolean[] keep = ppt.select_ternary_slices(ternary_vis);
+    for (int i = 0; i < keep.length; i++) {
+      if (!keep[i]) continue;
+      Constant[] con_arr = ternary_cons.get(i);
+      PptSlice3 slice3 = new PptSlice3(ppt, con_arr[0].vi, con_arr[1].vi, con_arr[2].vi);
+      slice3.instantiate_invariants();
+      if ((con_arr[0].count > 0) && (con_arr[1].count > 0) && (con_arr[2].count > 0)) {
+        assert con_arr[0].val != null
+            : "@AssumeAssertion(nullness): dependent: val != null when count>0";
+        assert con_arr[1].val != null
+            : "@AssumeAssertion(nullness): dependent: val != null when count>0";
+        assert con_arr[2].val != null
+            : "@AssumeAssertion(nullness): dependent: val != null when count>0";
+        slice3.add_val_bu(
+            con_arr[0].val, con_arr[1].val, con_arr[2].val, mod, mod, mod, con_arr[0].count);
+      }
+      new_views.add(slice3);
+    }
+
     // Debug print the created slies
     if (Debug.logOn() || debug.isLoggable(Level.FINE)) {
       int[] slice_cnt = {0, 0, 0, 0};
@@ -946,6 +1073,7 @@ public class DynamicConstants implements Serializable {
       con.previous_constant = true;
     }
     con_list = new ArrayList<Constant>();
+    con_indices = null;
 
     // Don't do anything with variables that have always been missing.  They
     // should have no invariants over them.
@@ -1075,6 +1203,7 @@ public class DynamicConstants implements Serializable {
     // clear the constant and missing lists
     missing_list.clear();
     con_list.clear();
+    con_indices = null;
 
     // Process each variable at this ppt.  If the variable is missing at
     // each of the children, it is also missing here.  Ignore children that
@@ -11,6 +11,7 @@ import static daikon.tools.nullness.NullnessUtils.castNonNullDeep;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import daikon.config.Configuration;
+import daikon.derive.Derivation;
 import daikon.derive.ValueAndModified;
 import daikon.diff.InvMap;
 import daikon.inv.Invariant;
@@ -115,6 +116,79 @@ public final class FileIO {
    */
   public static long dkconfig_dtrace_line_count = 0;
 
+  /**
+   * Boolean. When true, each dtrace file is read (and decompressed) on a separate thread, which
+   * runs ahead of the thread that parses records and performs inference. Records are still parsed
+   * and processed in file order, so the results are unchanged.
+   */
+  public static boolean dkconfig_pipelined_read = false;
+
+  /**
+   * Integer. When {@code dkconfig_pipelined_read} is true, the maximum number of chunks of lines
+   * (each 1024 lines) that the reading thread may read ahead.
+   */
+  public static int dkconfig_pipeline_queue_size = 64;
+
+  /**
+   * Boolean. When true, uncompressed dtrace files are memory-mapped and read with a {@link
+   * DtraceScanner}, which recognizes nonce headers, variable names, unchanged values, and modbits
+   * directly from the file's bytes instead of creating a String for each line. Compressed files,
+   * standard input, and URLs are read as usual. This option takes precedence over {@code
+   * dkconfig_pipelined_read}.
+   */
+  public static boolean dkconfig_mmap_dtrace = false;
+
+  /**
+   * Boolean. When true, consecutive identical samples at a program point are added to it once,
+   * with a count, rather than once each. This speeds up processing of traces from loops that
+   * repeatedly reach a program point in the same state. The samples at each program point are
+   * still processed in order, so the results are unchanged. Has no effect when the dataflow
+   * hierarchy is disabled.
+   */
+  public static boolean dkconfig_coalesce_samples = false;
+
+  /**
+   * Boolean. When true, a derived variable whose base variables have the same values as in the
+   * previous sample at its program point is given its previous value, rather than being derived
+   * again. Deriving sequence variables, such as subsequences and concatenations, creates and
+   * interns a new array each time, which can cost more than checking the invariants over them.
+   * The derived values are the same either way, so the results are unchanged.
+   */
+  public static boolean dkconfig_reuse_derived_values = false;
+
+  /**
+   * Integer. When {@code dkconfig_coalesce_samples} is true, the maximum number of identical
+   * samples that are combined into a single call to {@link PptTopLevel#add_bottom_up}.
+   */
+  public static int dkconfig_coalesce_limit = 10000;
+
+  /**
+   * Integer. If positive, a procedure entry whose exit has not been seen after this many more
+   * entries is moved from memory to a temporary file until its exit is seen. This bounds the memory
+   * used by traces with many outstanding calls, such as those of deeply recursive or multithreaded
+   * programs. If 0, all pending entries are kept in memory.
+   */
+  public static int dkconfig_invocation_spill_age = 0;
+
+  /**
+   * Integer. If greater than 1, the number of worker threads that add samples to their program
+   * points while the trace is being read. Each program point's samples are still added to it in
+   * order, but samples at different program points are processed concurrently; see {@link
+   * ParallelInference}. Only adding each sample to the slices of its program point runs
+   * concurrently. Everything else runs one sample at a time under a single global lock: reading
+   * the trace, and the instantiation of slices and invariants, the equality sets, the dynamic
+   * constants and the unsuppression of invariants in {@link PptTopLevel#add_bottom_up}. Has no
+   * effect when the dataflow hierarchy is disabled or when discarded invariants are being
+   * printed. If 0 or 1, samples are processed by the thread that reads them.
+   */
+  public static int dkconfig_inference_threads = 0;
+
+  /**
+   * Integer. When {@code dkconfig_inference_threads} is greater than 1, the maximum number of
+   * samples that may be waiting to be processed before reading pauses.
+   */
+  public static int dkconfig_inference_queue_limit = 10000;
+
   /** True if declaration records are in the new format -- that is, decl-version 2.0. */
   // Set by read_decl_version; by read_data_trace_record if the file is non-empty;
   // by read_serialized_pptmap; and by InvMap.readObject.
@@ -146,6 +220,30 @@ public final class FileIO {
   // modified since this program point was last executed.
   static HashMap<PptTopLevel, String[]> ppt_to_value_reps = new HashMap<PptTopLevel, String[]>();
 
+  // The analogue of ppt_to_value_reps for binary traces (see BinaryDtrace).
+  // Values are interned, so they can be compared without their printed
+  // representation.
+  static HashMap<PptTopLevel, /*@Nullable*/ Object[]> ppt_to_binary_vals =
+      new HashMap<PptTopLevel, /*@Nullable*/ Object[]>();
+
+  /** A run of identical samples that has not yet been added to its program point. */
+  private static final class CoalescedRun {
+    /** The sample; its vals and mods are interned. */
+    ValueTuple vt;
+    /** The number of times vt occurred in a row. */
+    int count;
+
+    CoalescedRun(ValueTuple vt) {
+      this.vt = vt;
+      this.count = 1;
+    }
+  }
+
+  // When dkconfig_coalesce_samples is true, maps each program point to
+  // the run of samples most recently seen there.
+  static HashMap<PptTopLevel, CoalescedRun> coalesced_runs =
+      new HashMap<PptTopLevel, CoalescedRun>();
+
   // For debugging purposes: printing out a modified trace file with
   // changed modbits.
   private static boolean to_write_nonce = false;
@@ -286,6 +384,8 @@ public final class FileIO {
     Map<String, VarDefinition> varmap = new LinkedHashMap<String, VarDefinition>();
     /** The VarDefinition we are in the middle of reading, or null if we are not. */
     VarDefinition vardef = null;
+    /** All of the variable definitions, including those that are not included. */
+    List<VarDefinition> all_vardefs = new ArrayList<VarDefinition>();
     List<ParentRelation> ppt_parents = new ArrayList<ParentRelation>();
     EnumSet<PptFlags> ppt_flags = EnumSet.noneOf(PptFlags.class);
     PptType ppt_type = PptType.POINT;
@@ -305,6 +405,7 @@ public final class FileIO {
           parse_ppt_flags(state, scanner, ppt_flags);
         } else if (record == "variable") { // interned
           vardef = new VarDefinition(state, scanner);
+          all_vardefs.add(vardef);
           // There is no need to check "varmap.containsKey(vardef.name)"
           // because this is the first variable.
           assert varmap.isEmpty();
@@ -346,6 +447,7 @@ public final class FileIO {
             decl_error(state, e);
           }
           vardef = new VarDefinition(state, scanner);
+          all_vardefs.add(vardef);
           if (varmap.containsKey(vardef.name)) {
             decl_error(state, "var %s declared twice", vardef.name);
           }
@@ -386,6 +488,14 @@ public final class FileIO {
     }
     VarInfo[] vi_array = vi_list.toArray(new VarInfo[vi_list.size()]);
 
+    List<String> trace_var_names = new ArrayList<String>(all_vardefs.size());
+    for (VarDefinition vd : all_vardefs) {
+      if (vd.static_constant_value == null) {
+        trace_var_names.add(vd.name);
+      }
+    }
+    boolean /*@Nullable*/ [] trace_var_mask = trace_var_mask(trace_var_names);
+
     // Check to see if the program point is new
     if (state.all_ppts.containsName(ppt_name)) {
       PptTopLevel existing_ppt = state.all_ppts.get(ppt_name);
@@ -400,12 +510,14 @@ public final class FileIO {
             vi.checkRep();
           }
         }
+        existing_ppt.trace_var_mask = trace_var_mask;
         return existing_ppt;
       }
     }
 
     // Build the program point
     PptTopLevel newppt = new PptTopLevel(ppt_name, ppt_type, ppt_parents, ppt_flags, vi_array);
+    newppt.trace_var_mask = trace_var_mask;
 
     return newppt;
   }
@@ -452,7 +564,9 @@ public final class FileIO {
     }
     ppt_name = user_mod_ppt_name(ppt_name);
     ppt_name = ppt_name.intern();
-    VarInfo[] vi_array = read_VarInfos(state, ppt_name);
+    List<String> trace_var_names = new ArrayList<String>();
+    VarInfo[] vi_array = read_VarInfos(state, ppt_name, trace_var_names);
+    boolean /*@Nullable*/ [] trace_var_mask = trace_var_mask(trace_var_names);
 
     // System.out.printf ("Ppt %s with %d variables\n", ppt_name,
     //                   vi_array.length);
@@ -466,6 +580,7 @@ public final class FileIO {
       if (state.ppts_may_be_new) {
         check_decl_match(state, existing_ppt, vi_array);
       } else { // ppts are already in the map
+        existing_ppt.trace_var_mask = trace_var_mask;
         return existing_ppt;
       }
     }
@@ -506,12 +621,18 @@ public final class FileIO {
 
     //TODO: add a new config variable to turn this accessibility flag processing on?
     PptTopLevel newppt = new PptTopLevel(ppt_name, vi_array);
+    newppt.trace_var_mask = trace_var_mask;
     // newppt.ppt_name.setVisibility("package-protected");
     return newppt;
     // return new PptTopLevel(ppt_name, vi_array);
   }
 
-  private static VarInfo[] read_VarInfos(ParseState state, String ppt_name) throws IOException {
+  /**
+   * Reads the variable declarations of a ppt, and returns those that are included. Adds the name of
+   * each variable that will appear in samples, whether or not it is included, to trace_var_names.
+   */
+  private static VarInfo[] read_VarInfos(
+      ParseState state, String ppt_name, List<String> trace_var_names) throws IOException {
 
     // The var_infos that will populate the new program point
     List<VarInfo> var_infos = new ArrayList<VarInfo>();
@@ -525,6 +646,9 @@ public final class FileIO {
           throw new Daikon.TerminationMessage("Duplicate variable name " + vi.name(), state);
         }
       }
+      if (!vi.is_static_constant) {
+        trace_var_names.add(vi.name());
+      }
       // Can't do this test in read_VarInfo, it seems, because of the test
       // against null above.
       if (!var_included(vi.name())) {
@@ -777,23 +901,53 @@ public final class FileIO {
   /// invocation tracking for dtrace files entry/exit grouping
   ///
 
-  static final class Invocation implements Comparable<Invocation> {
+  public static final class Invocation implements Comparable<Invocation>, Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20261018L;
+
     PptTopLevel ppt; // used in printing and in suppressing duplicates
-    // Rather than a valuetuple, place its elements here.
+    // Rather than a valuetuple, place its elements here.  Only the values
+    // of the variables in the trace are kept, since those are all that the
+    // exit's orig variables use; the slots for derived variables are not.
     /*@Nullable*/ Object[] vals;
-    int[] mods;
+    byte[] mods;
 
     static Object canonical_hashcode = new Object();
 
-    Invocation(PptTopLevel ppt, /*@Nullable*/ Object[] vals, int[] mods) {
+    /** Creates an Invocation from the values of a sample at ppt, which is an entry. */
+    public Invocation(PptTopLevel ppt, /*@Nullable*/ Object[] vals, int[] mods) {
+      this.ppt = ppt;
+      int len = Math.min(vals.length, ppt.num_tracevars);
+      this.vals = Arrays.copyOf(vals, len);
+      this.mods = new byte[len];
+      for (int i = 0; i < len; i++) {
+        this.mods[i] = (byte) mods[i];
+      }
+    }
+
+    Invocation(PptTopLevel ppt, /*@Nullable*/ Object[] vals, byte[] mods) {
       this.ppt = ppt;
       this.vals = vals;
       this.mods = mods;
     }
 
+    // Interning is lost when an object is serialized and deserialized.
+    // Manually re-intern the values, which are copied into samples.
+    @SuppressWarnings("interning") // re-interning
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      for (int i = 0; i < vals.length; i++) {
+        if (vals[i] != null) {
+          vals[i] = Intern.intern(vals[i]);
+        }
+      }
+    }
+
     // Print the Invocation on two lines, indented by two spaces
     // The receiver Invocation may be canonicalized or not.
-    String format(/*>>>@GuardSatisfied Invocation this*/) {
+    public String format(/*>>>@GuardSatisfied Invocation this*/) {
       return format(true);
     }
 
@@ -838,7 +992,9 @@ public final class FileIO {
       VarInfo[] vis = ppt.var_infos;
       // Warning: abstraction violation!
       for (VarInfo vi : vis) {
-        if ((vi.value_index != -1) && (vi.file_rep_type == ProglangType.HASHCODE)) {
+        if ((vi.value_index != -1)
+            && (vi.value_index < vals.length)
+            && (vi.file_rep_type == ProglangType.HASHCODE)) {
           new_vals[vi.value_index] = canonical_hashcode;
         }
       }
@@ -876,7 +1032,7 @@ public final class FileIO {
   // I could save some Object overhead by using two parallel stacks
   // instead of Invocation objects; but that's not worth it.
   static Stack<Invocation> call_stack = new Stack<Invocation>();
-  static HashMap<Integer, Invocation> call_hashmap = new HashMap<Integer, Invocation>();
+  static InvocationTable call_hashmap = new InvocationTable();
 
   /**
    * Reads data from {@code .dtrace} files. For each record in the files, calls the appropriate
@@ -906,8 +1062,12 @@ public final class FileIO {
 
     for (String filename : files) {
       // System.out.printf ("processing filename %s%n", filename);
+      if (Checkpoint.skip_file(filename)) {
+        continue;
+      }
       try {
         read_data_trace_file(filename, all_ppts, processor, false, ppts_may_be_new);
+        Checkpoint.file_finished(filename);
       } catch (Daikon.TerminationMessage e) {
         throw e;
       } catch (Throwable e) {
@@ -956,6 +1116,9 @@ public final class FileIO {
       }
     }
 
+    flush_coalesced_samples();
+    ParallelInference.shutdown();
+
     process_unmatched_procedure_entries();
 
     warn_if_hierarchy_mismatch(all_ppts);
@@ -1159,9 +1322,15 @@ public final class FileIO {
     /** All of the ppts seen so far */
     public PptMap all_ppts;
 
-    /** Input stream */
+    /**
+     * Input stream. For a binary trace, this is an empty stream whose line number is the number of
+     * the record most recently read.
+     */
     public LineNumberReader reader;
 
+    /** Non-null if the input file is a binary trace; see {@link BinaryDtrace}. */
+    public /*@Nullable*/ BinaryDtrace.Reader binary_reader;
+
     /** Total number of lines in the input file */
     public long total_lines;
 
@@ -1191,6 +1360,9 @@ public final class FileIO {
     /** Miscellaneous text in the parsed item */
     public /*@Nullable*/ Object payload; // used when status=COMMENT
 
+    /** Names of the ppts whose samples have been skipped because ppt_included is false. */
+    public HashSet<String> omitted_ppts = new HashSet<String>();
+
     /** Start parsing the given file. */
     public ParseState(
         String raw_filename, boolean decl_file_p, boolean ppts_may_be_new, PptMap ppts)
@@ -1210,12 +1382,28 @@ public final class FileIO {
       all_ppts = ppts;
 
       boolean is_url = raw_filename.startsWith("file:") || raw_filename.startsWith("jar:");
+      boolean is_binary = !is_decl_file && BinaryDtrace.is_binary_dtrace(raw_filename);
+
+      // If only some ppts are being processed, and this is a block-compressed
+      // file with an index, then only the blocks that contain them are read.
+      List<BlockGzip.Block> blocks = null;
+      if (!is_decl_file
+          && !is_url
+          && !is_binary
+          && raw_filename.endsWith(".gz")
+          && ((Daikon.ppt_regexp != null)
+              || (Daikon.ppt_omit_regexp != null)
+              || (Daikon.ppt_max_name != null))) {
+        blocks = BlockGzip.read_index(raw_filename);
+      }
 
       // Do we need to count the lines in the file?
       total_lines = 0;
       boolean count_lines = dkconfig_count_lines;
       if (is_decl_file) {
         count_lines = false;
+      } else if (is_binary) {
+        count_lines = false;
       } else if (dkconfig_dtrace_line_count != 0) {
         total_lines = dkconfig_dtrace_line_count;
         count_lines = false;
@@ -1257,10 +1445,25 @@ public final class FileIO {
         } else {
           reader = new LineNumberReader(new InputStreamReader(stream, UTF_8));
         }
+      } else if (is_binary) {
+        binary_reader = new BinaryDtrace.Reader(raw_filename);
+        reader = new LineNumberReader(new StringReader(""));
+      } else if (blocks != null) {
+        InputStream stream = BlockGzip.open_blocks(raw_filename, selected_blocks(blocks));
+        reader = new LineNumberReader(new InputStreamReader(stream, UTF_8));
+      } else if (dkconfig_mmap_dtrace && !is_decl_file && !raw_filename.endsWith(".gz")) {
+        reader = new DtraceScanner(raw_filename);
       } else {
         reader = UtilMDE.lineNumberFileReader(raw_filename);
       }
 
+      if (dkconfig_pipelined_read
+          && !is_decl_file
+          && (binary_reader == null)
+          && !(reader instanceof DtraceScanner)) {
+        reader = new ReadAheadLineReader(reader, dkconfig_pipeline_queue_size);
+      }
+
       varcomp_format = VarComparability.IMPLICIT;
       rtype = RecordType.NULL;
       ppt = null;
@@ -1292,7 +1495,8 @@ public final class FileIO {
           line = line + ", " + percent;
         }
       }
-      return "Reading " + filename + " (line " + line + ") ...";
+      String unit = (binary_reader != null) ? "record" : "line";
+      return "Reading " + filename + " (" + unit + " " + line + ") ...";
     }
 
     public String line_file_message() {
@@ -1355,6 +1559,9 @@ public final class FileIO {
 
     ParseState data_trace_state = new ParseState(filename, is_decl_file, ppts_may_be_new, all_ppts);
     FileIO.data_trace_state = data_trace_state;
+    if (!is_decl_file) {
+      Checkpoint.skip_to_resume_point(data_trace_state);
+    }
 
     // Used for debugging: write new data trace file.
     if (Global.debugPrintDtrace) {
@@ -1362,8 +1569,23 @@ public final class FileIO {
           new PrintWriter(Files.newBufferedWriter(new File(filename + ".debug").toPath(), UTF_8));
     }
 
+    // Reading interns values, so when worker threads add samples it must not
+    // run while one of them uses the shared state; see ParallelInference.
+    boolean parallel = ParallelInference.enabled();
     while (true) {
-      read_data_trace_record(data_trace_state);
+      try {
+        ParallelInference.await_capacity();
+      } catch (Error e) {
+        // A sample that a worker thread was adding failed
+        handle_sample_error(e, data_trace_state);
+      }
+      if (parallel) {
+        synchronized (Intern.class) {
+          read_data_trace_record(data_trace_state);
+        }
+      } else {
+        read_data_trace_record(data_trace_state);
+      }
 
       if (data_trace_state.rtype == RecordType.SAMPLE) {
         assert data_trace_state.ppt != null
@@ -1374,24 +1596,25 @@ public final class FileIO {
         samples_processed++;
         // Add orig and derived variables; pass to inference (add_and_flow)
         try {
-          processor.process_sample(
-              data_trace_state.all_ppts,
-              data_trace_state.ppt,
-              data_trace_state.vt,
-              data_trace_state.nonce);
-        } catch (Error e) {
-          //e.printStackTrace();
-          if (!dkconfig_continue_after_file_exception) {
-            throw new Daikon.TerminationMessage(e, data_trace_state);
+          if (parallel) {
+            synchronized (Intern.class) {
+              processor.process_sample(
+                  data_trace_state.all_ppts,
+                  data_trace_state.ppt,
+                  data_trace_state.vt,
+                  data_trace_state.nonce);
+            }
           } else {
-            System.out.println();
-            System.out.println(
-                "WARNING: Error while processing " + "trace file - subsequent records ignored");
-            System.out.print("Ignored backtrace:");
-            e.printStackTrace(System.out);
-            System.out.println();
+            processor.process_sample(
+                data_trace_state.all_ppts,
+                data_trace_state.ppt,
+                data_trace_state.vt,
+                data_trace_state.nonce);
           }
+        } catch (Error e) {
+          handle_sample_error(e, data_trace_state);
         }
+        Checkpoint.sample_processed(data_trace_state);
       } else if ((data_trace_state.rtype == RecordType.EOF)
           || (data_trace_state.rtype == RecordType.TRUNCATED)) {
         break;
@@ -1404,11 +1627,62 @@ public final class FileIO {
       Global.dtraceWriter.close();
     }
 
+    if (data_trace_state.binary_reader != null) {
+      data_trace_state.binary_reader.close();
+    } else if ((data_trace_state.reader instanceof ReadAheadLineReader)
+        || (data_trace_state.reader instanceof DtraceScanner)) {
+      // Stop the reading thread (which may not have reached the end of the
+      // file if reading was truncated), or release the mapping.
+      data_trace_state.reader.close();
+    }
+
+    drain_inference_workers(data_trace_state);
+
     Daikon.progress = "Finished reading " + data_trace_state.filename;
 
     clear_data_trace_state();
   }
 
+  /**
+   * Handles an Error thrown while a sample read from state was processed, either by the reading
+   * thread or by a worker thread (see {@link ParallelInference}): unless
+   * dkconfig_continue_after_file_exception is set, reports it along with the position in the
+   * trace file. A worker's Error gives the position of its own sample, rather than the current
+   * position of state, which may be well past it.
+   */
+  private static void handle_sample_error(Error e, ParseState state) {
+    //e.printStackTrace();
+    if (!dkconfig_continue_after_file_exception) {
+      if (e instanceof ParallelInference.SampleError) {
+        ParallelInference.SampleError se = (ParallelInference.SampleError) e;
+        if (se.filename != null) {
+          throw new Daikon.TerminationMessage(
+              e, "Error at line " + se.line_number + " in file " + se.filename);
+        }
+      }
+      throw new Daikon.TerminationMessage(e, state);
+    } else {
+      System.out.println();
+      System.out.println(
+          "WARNING: Error while processing " + "trace file - subsequent records ignored");
+      System.out.print("Ignored backtrace:");
+      e.printStackTrace(System.out);
+      System.out.println();
+    }
+  }
+
+  /**
+   * Waits until the worker threads have added every sample read from state, handling an Error
+   * thrown by one of them as for a sample processed by the reading thread.
+   */
+  static void drain_inference_workers(ParseState state) {
+    try {
+      ParallelInference.drain();
+    } catch (Error e) {
+      handle_sample_error(e, state);
+    }
+  }
+
   /**
    * Like read_data_trace_record, but sets global FileIO.data_trace_state for the duration of the
    * call then clears it before returning. Intended for most external callers.
@@ -1435,6 +1709,11 @@ public final class FileIO {
     boolean stateOK = (state == FileIO.data_trace_state);
     assert stateOK;
 
+    if (state.binary_reader != null) {
+      state.binary_reader.read_record(state);
+      return;
+    }
+
     LineNumberReader reader = state.reader;
 
     for (String line = reader.readLine(); line != null; line = reader.readLine()) {
@@ -1529,7 +1808,14 @@ public final class FileIO {
       String ppt_name = line;
       if (new_decl_format) ppt_name = unescape_decl(line); // interning bugfix: no need to intern
       ppt_name = user_mod_ppt_name(ppt_name);
-      if (!ppt_included(ppt_name)) {
+      // A declared ppt passed ppt_included when its declaration was read,
+      // and an omitted one is remembered, so each name is matched once.
+      boolean omitted = state.omitted_ppts.contains(ppt_name);
+      if (!omitted && !state.all_ppts.containsName(ppt_name) && !ppt_included(ppt_name)) {
+        state.omitted_ppts.add(ppt_name);
+        omitted = true;
+      }
+      if (omitted) {
         // System.out.printf ("skipping ppt %s\n", line);
         while ((line != null) && !line.equals("")) line = reader.readLine();
         continue;
@@ -1588,8 +1874,13 @@ public final class FileIO {
       // Read an invocation nonce if one exists
       Integer nonce;
 
+      DtraceScanner scanner = (reader instanceof DtraceScanner) ? (DtraceScanner) reader : null;
+
       boolean nonce_exists;
-      {
+      if (scanner != null) {
+        // Consumes the header if it is present.
+        nonce_exists = scanner.skip_line_if_equals(NONCE_HEADER);
+      } else {
         String nonce_header_peekahead;
         // arbitrary number, hopefully big enough; catch exceptions
         reader.mark(1000);
@@ -1603,6 +1894,11 @@ public final class FileIO {
       }
       if (!nonce_exists) {
         nonce = null;
+      } else if (scanner != null) {
+        nonce = scanner.read_integer_line();
+        if (nonce == null) {
+          throw new Daikon.TerminationMessage("File ended while trying to read nonce", state);
+        }
       } else {
         @SuppressWarnings("nullness") // nonce_exists is true, so readLine() returns non-null
         /*@NonNull*/ String nonce_header = reader.readLine(); // read & discard header
@@ -1612,11 +1908,10 @@ public final class FileIO {
           throw new Daikon.TerminationMessage("File ended while trying to read nonce", state);
         }
         nonce = Integer.valueOf(nonce_number);
-
-        if (Global.debugPrintDtrace) {
-          to_write_nonce = true;
-          nonce_value = nonce.toString();
-        }
+      }
+      if (nonce != null && Global.debugPrintDtrace) {
+        to_write_nonce = true;
+        nonce_value = nonce.toString();
       }
 
       /*@Nullable*/ Object[] vals = new /*@Nullable*/ Object[vals_array_size];
@@ -1726,9 +2021,7 @@ public final class FileIO {
       return;
     }
 
-    @SuppressWarnings(
-        "flowexpr.parse.error") // https://github.com/typetools/checker-framework/issues/862
-    Object dummy = ppt.add_bottom_up(vt, 1);
+    add_sample(ppt, vt);
 
     if (debugVars.isLoggable(Level.FINE)) {
       debugVars.fine(ppt.name() + " vars: " + Debug.int_vars(ppt, vt));
@@ -1741,6 +2034,85 @@ public final class FileIO {
     }
   }
 
+  /**
+   * Adds the sample to ppt. If dkconfig_coalesce_samples is true, the sample may instead be
+   * counted as a repetition of the previous sample at ppt; the repetitions are added later, at
+   * once, by this method or by {@link #flush_coalesced_samples}.
+   */
+  private static void add_sample(PptTopLevel ppt, ValueTuple vt) {
+    if (!dkconfig_coalesce_samples || !Daikon.use_dataflow_hierarchy) {
+      add_bottom_up(ppt, vt, 1);
+      return;
+    }
+
+    // vt is interned, so identical samples share their vals and mods
+    CoalescedRun run = coalesced_runs.get(ppt);
+    if (run == null) {
+      coalesced_runs.put(ppt, new CoalescedRun(vt));
+    } else if (run.vt.vals == vt.vals
+        && run.vt.mods == vt.mods
+        && run.count < dkconfig_coalesce_limit) {
+      run.count++;
+    } else {
+      add_bottom_up(ppt, run.vt, run.count);
+      run.vt = vt;
+      run.count = 1;
+    }
+  }
+
+  /**
+   * Adds to their program points any samples that were held back by dkconfig_coalesce_samples. This
+   * must be called after the last sample is read and before the invariants are used.
+   */
+  public static void flush_coalesced_samples() {
+    for (Map.Entry<PptTopLevel, CoalescedRun> entry : coalesced_runs.entrySet()) {
+      add_bottom_up(entry.getKey(), entry.getValue().vt, entry.getValue().count);
+    }
+    coalesced_runs.clear();
+  }
+
+  private static void add_bottom_up(PptTopLevel ppt, ValueTuple vt, int count) {
+    // Once per sample (or run of identical samples), rather than once per slice
+    vt.unbox_scalars();
+    if (ParallelInference.enabled()) {
+      ParseState state = FileIO.data_trace_state;
+      if (state == null) {
+        ParallelInference.add(ppt, vt, count, null, 0);
+      } else {
+        ParallelInference.add(ppt, vt, count, state.filename, state.reader.getLineNumber());
+      }
+      return;
+    }
+    @SuppressWarnings(
+        "flowexpr.parse.error") // https://github.com/typetools/checker-framework/issues/862
+    Object dummy = ppt.add_bottom_up(vt, count);
+  }
+
+  /**
+   * Returns the blocks of a block-compressed trace that must be read: those that contain
+   * declarations or other non-sample records, and those that contain a sample for an included
+   * ppt. Samples in the other blocks would be skipped by {@link #read_data_trace_record} anyway.
+   */
+  static List<BlockGzip.Block> selected_blocks(List<BlockGzip.Block> blocks) {
+    List<BlockGzip.Block> result = new ArrayList<BlockGzip.Block>();
+    for (BlockGzip.Block block : blocks) {
+      boolean selected = block.has_other;
+      for (int i = 0; !selected && i < block.ppt_names.size(); i++) {
+        // The index holds the name as written in the file.  Whether it
+        // needs unescaping depends on the declaration format, which may
+        // not be known yet, so check it both ways.
+        String ppt_name = block.ppt_names.get(i);
+        selected =
+            ppt_included(user_mod_ppt_name(ppt_name))
+                || ppt_included(user_mod_ppt_name(unescape_decl(ppt_name)));
+      }
+      if (selected) {
+        result.add(block);
+      }
+    }
+    return result;
+  }
+
   /** Returns true if this procedure has an unmatched entry. */
   static boolean has_unmatched_procedure_entry(PptTopLevel ppt) {
     for (Invocation invok : call_hashmap.values()) {
@@ -1776,10 +2148,8 @@ public final class FileIO {
         if (dkconfig_verbose_unmatched_procedure_entries) {
           // Print the invocations in sorted order.
           ArrayList<Invocation> invocations = new ArrayList<Invocation>();
-          for (/*@KeyFor("call_hashmap")*/ Integer i : UtilMDE.sortedKeySet(call_hashmap)) {
-            Invocation invok = call_hashmap.get(i);
-            assert invok != null;
-            invocations.add(invok);
+          for (int nonce : call_hashmap.sorted_keys()) {
+            invocations.add(call_hashmap.get(nonce));
           }
           print_invocations_verbose(invocations);
         } else {
@@ -1849,6 +2219,19 @@ public final class FileIO {
     VarInfo[] vis = ppt.var_infos;
     int num_tracevars = ppt.num_tracevars;
 
+    // A DtraceScanner can match expected lines in place, without creating
+    // Strings.  Variable names can be matched that way only if no
+    // variables are being filtered out.
+    DtraceScanner scanner = (reader instanceof DtraceScanner) ? (DtraceScanner) reader : null;
+    boolean filter_vars = (Daikon.var_omit_regexp != null) || (Daikon.var_regexp != null);
+
+    // If variables are being filtered, the mask computed from the ppt's
+    // declaration tells which variables in the sample to skip, so their
+    // names need not be matched against the patterns.  trace_index is the
+    // position in the sample of the next variable to be read.
+    boolean /*@Nullable*/ [] trace_var_mask = filter_vars ? ppt.trace_var_mask : null;
+    int trace_index = 0;
+
     /*NNC:@Nullable*/ String[] oldvalue_reps = ppt_to_value_reps.get(ppt);
     if (oldvalue_reps == null) {
       // We've not encountered this program point before.  The nulls in
@@ -1892,88 +2275,116 @@ public final class FileIO {
       // In errors, say "for program point", not "at program point" as the
       // latter confuses Emacs goto-error.
 
-      String line = reader.readLine();
-      if (line == null) {
-        throw new Daikon.TerminationMessage(
-            "Unexpected end of file at "
-                + data_trace_state.filename
-                + " line "
-                + reader.getLineNumber()
-                + lineSep
-                + "  Expected variable "
-                + vi.name()
-                + ", got "
-                + "null" // line
-                + " for program point "
-                + ppt.name());
+      if (trace_var_mask != null) {
+        trace_index = skip_excluded_vars(reader, trace_var_mask, trace_index, ppt) + 1;
       }
 
-      // Read lines until an included variable is found
-      while ((line != null) && !line.equals("") && !var_included(line)) {
-        line = reader.readLine(); // value (discard it)
-        line = reader.readLine(); // modbit
-        if (line == null || !((line.equals("0") || line.equals("1") || line.equals("2")))) {
-          throw new Daikon.TerminationMessage("Bad modbit '" + line + "'", data_trace_state);
+      String line;
+      // If the variable name matches exactly, there is no need to build or unescape it.
+      boolean name_matched =
+          (scanner != null)
+              && (!filter_vars || trace_var_mask != null)
+              && (vi.str_name().indexOf('\\') == -1)
+              && scanner.skip_line_if_equals(vi.str_name());
+      if (!name_matched) {
+        line = reader.readLine();
+        if (line == null) {
+          throw new Daikon.TerminationMessage(
+              "Unexpected end of file at "
+                  + data_trace_state.filename
+                  + " line "
+                  + reader.getLineNumber()
+                  + lineSep
+                  + "  Expected variable "
+                  + vi.name()
+                  + ", got "
+                  + "null" // line
+                  + " for program point "
+                  + ppt.name());
         }
-        line = reader.readLine(); // next variable name
-      }
-      if (line == null) {
-        throw new Daikon.TerminationMessage(
-            "Unexpected end of file at "
-                + data_trace_state.filename
-                + " line "
-                + reader.getLineNumber()
-                + lineSep
-                + "  Expected to find variable name"
-                + " for program point "
-                + ppt.name());
-      }
 
-      if (!unescape_decl(line.trim()).equals(vi.str_name())) {
-        throw new Daikon.TerminationMessage(
-            "Mismatch between .dtrace file and .decls file.  Expected variable "
-                + vi.name()
-                + ", got "
-                + line
-                + " for program point "
-                + ppt.name(),
-            data_trace_state);
-      }
-      line = reader.readLine();
-      if (line == null) {
-        throw new Daikon.TerminationMessage(
-            "Unexpected end of file at "
-                + data_trace_state.filename
-                + " line "
-                + reader.getLineNumber()
-                + lineSep
-                + "  Expected value for variable "
-                + vi.name()
-                + ", got "
-                + "null" // line
-                + " for program point "
-                + ppt.name());
+        // Read lines until an included variable is found
+        while ((line != null)
+            && !line.equals("")
+            && (trace_var_mask == null)
+            && !var_included(line)) {
+          line = reader.readLine(); // value (discard it)
+          line = reader.readLine(); // modbit
+          if (line == null || !((line.equals("0") || line.equals("1") || line.equals("2")))) {
+            throw new Daikon.TerminationMessage("Bad modbit '" + line + "'", data_trace_state);
+          }
+          line = reader.readLine(); // next variable name
+        }
+        if (line == null) {
+          throw new Daikon.TerminationMessage(
+              "Unexpected end of file at "
+                  + data_trace_state.filename
+                  + " line "
+                  + reader.getLineNumber()
+                  + lineSep
+                  + "  Expected to find variable name"
+                  + " for program point "
+                  + ppt.name());
+        }
+
+        if (!unescape_decl(line.trim()).equals(vi.str_name())) {
+          throw new Daikon.TerminationMessage(
+              "Mismatch between .dtrace file and .decls file.  Expected variable "
+                  + vi.name()
+                  + ", got "
+                  + line
+                  + " for program point "
+                  + ppt.name(),
+              data_trace_state);
+        }
       }
-      String value_rep = line;
-      line = reader.readLine();
-      if (line == null) {
-        throw new Daikon.TerminationMessage(
-            "Unexpected end of file at "
-                + data_trace_state.filename
-                + " line "
-                + reader.getLineNumber()
-                + lineSep
-                + "  Expected modbit for variable "
-                + vi.name()
-                + ", got "
-                + "null" // line
-                + " for program point "
-                + ppt.name());
+
+      String value_rep;
+      String oldvalue_rep = oldvalue_reps[val_index];
+      if (scanner != null && oldvalue_rep != null && scanner.skip_line_if_equals(oldvalue_rep)) {
+        // Unchanged value:  reuse the previous String.
+        value_rep = oldvalue_rep;
+      } else {
+        line = reader.readLine();
+        if (line == null) {
+          throw new Daikon.TerminationMessage(
+              "Unexpected end of file at "
+                  + data_trace_state.filename
+                  + " line "
+                  + reader.getLineNumber()
+                  + lineSep
+                  + "  Expected value for variable "
+                  + vi.name()
+                  + ", got "
+                  + "null" // line
+                  + " for program point "
+                  + ppt.name());
+        }
+        value_rep = line;
       }
-      if (!((line.equals("0") || line.equals("1") || line.equals("2")))) {
-        throw new Daikon.TerminationMessage("Bad modbit `" + line + "'", data_trace_state);
+
+      int mod = (scanner == null) ? -1 : scanner.read_modbit_line();
+      if (mod == -1) {
+        line = reader.readLine();
+        if (line == null) {
+          throw new Daikon.TerminationMessage(
+              "Unexpected end of file at "
+                  + data_trace_state.filename
+                  + " line "
+                  + reader.getLineNumber()
+                  + lineSep
+                  + "  Expected modbit for variable "
+                  + vi.name()
+                  + ", got "
+                  + "null" // line
+                  + " for program point "
+                  + ppt.name());
+        }
+        if (!((line.equals("0") || line.equals("1") || line.equals("2")))) {
+          throw new Daikon.TerminationMessage("Bad modbit `" + line + "'", data_trace_state);
+        }
+        mod = ValueTuple.parseModified(line);
       }
-      int mod = ValueTuple.parseModified(line);
 
       // System.out.println("Mod is " + mod + " at " + data_trace_state.filename + " line " + reader.getLineNumber());
       // System.out.pringln("  for variable " + vi.name()
@@ -2094,9 +2505,12 @@ public final class FileIO {
     }
 
     // Expecting the end of a block of values.
-    String line = reader.readLine();
     // First, we might get some variables that ought to be omitted.
-    while ((line != null) && !line.equals("") && !var_included(line)) {
+    if (trace_var_mask != null) {
+      skip_excluded_vars(reader, trace_var_mask, trace_index, ppt);
+    }
+    String line = reader.readLine();
+    while ((line != null) && !line.equals("") && (trace_var_mask == null) && !var_included(line)) {
       line = reader.readLine(); // value
       line = reader.readLine(); // modbit
       line = reader.readLine(); // next variable name
@@ -2110,6 +2524,41 @@ public final class FileIO {
             + line;
   }
 
+  /**
+   * Reads and discards the variables of a sample that are excluded by trace_var_mask, starting with
+   * the variable at trace_index. Their names and values are not examined. Returns the index of the
+   * next included variable, or trace_var_mask.length if there is none.
+   */
+  private static int skip_excluded_vars(
+      LineNumberReader reader, boolean[] trace_var_mask, int trace_index, PptTopLevel ppt)
+      throws IOException {
+    DtraceScanner scanner = (reader instanceof DtraceScanner) ? (DtraceScanner) reader : null;
+    for (; trace_index < trace_var_mask.length && !trace_var_mask[trace_index]; trace_index++) {
+      boolean skipped =
+          (scanner != null)
+              ? (scanner.skip_line() && scanner.skip_line())
+              : (reader.readLine() != null && reader.readLine() != null);
+      if (!skipped) {
+        throw new Daikon.TerminationMessage(
+            "Unexpected end of file at "
+                + data_trace_state.filename
+                + " line "
+                + reader.getLineNumber()
+                + lineSep
+                + "  Expected omitted variable for program point "
+                + ppt.name());
+      }
+      int mod = (scanner == null) ? -1 : scanner.read_modbit_line();
+      if (mod == -1) {
+        String line = reader.readLine();
+        if (line == null || !((line.equals("0") || line.equals("1") || line.equals("2")))) {
+          throw new Daikon.TerminationMessage("Bad modbit '" + line + "'", data_trace_state);
+        }
+      }
+    }
+    return trace_index;
+  }
+
   /**
    * If this is a function entry ppt, stores the values of all of the variables away for use at the
    * exit. If this is an exit, finds the values at enter and adds them as the values of the orig
@@ -2168,7 +2617,8 @@ public final class FileIO {
           }
         } else {
           // nonce != null
-          if (!call_hashmap.containsKey(nonce)) {
+          Invocation entry = call_hashmap.remove(nonce);
+          if (entry == null) {
             if (dkconfig_ignore_missing_enter) {
               //System.out.printf ("Didn't find call with nonce %d to match %s" +
               //                   " ending at %s line %d\n", nonce, ppt.name(),
@@ -2187,8 +2637,7 @@ public final class FileIO {
                       data_trace_state.reader.getLineNumber()));
             }
           }
-          invoc = call_hashmap.get(nonce);
-          call_hashmap.remove(nonce);
+          invoc = entry;
         }
       }
 
@@ -2245,7 +2694,11 @@ public final class FileIO {
       assert ppt.var_infos[i].derived != null : "variable not derived: " + ppt.var_infos[i].repr();
       assert ppt.var_infos[i].derived != null : "@AssumeAssertion(nullness): application invariant";
       // Add this derived variable's value
-      ValueAndModified vm = ppt.var_infos[i].derived.computeValueAndModified(partial_vt);
+      Derivation derivation = ppt.var_infos[i].derived;
+      ValueAndModified vm =
+          dkconfig_reuse_derived_values
+              ? derivation.computeValueAndModifiedReusing(partial_vt)
+              : derivation.computeValueAndModified(partial_vt);
       vals[i - num_const] = vm.value;
       mods[i - num_const] = vm.modified;
     }
@@ -2369,6 +2822,24 @@ public final class FileIO {
     }
   }
 
+  /**
+   * Returns, for each of the given variables, whether it is included according to {@link
+   * #var_included}; or returns null if no variables are being filtered.
+   *
+   * @param trace_var_names the names of the variables that appear in a ppt's samples, in order
+   * @see PptTopLevel#trace_var_mask
+   */
+  static boolean /*@Nullable*/ [] trace_var_mask(List<String> trace_var_names) {
+    if ((Daikon.var_omit_regexp == null) && (Daikon.var_regexp == null)) {
+      return null;
+    }
+    boolean[] mask = new boolean[trace_var_names.size()];
+    for (int i = 0; i < mask.length; i++) {
+      mask[i] = var_included(trace_var_names.get(i));
+    }
+    return mask;
+  }
+
   /**
    * Checks the specified array of variables to see if it matches exactly the variables in the
    * existing ppt. Throws an error if there are any differences. Used to ensure that a new ppt with
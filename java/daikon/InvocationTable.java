@@ -0,0 +1,441 @@
+package daikon;
+
+import java.io.*;
+import java.util.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Maps invocation nonces to the {@link FileIO.Invocation}s of procedure entries whose exits have
+ * not yet been seen. This is an open-addressing hash table keyed by primitive ints, so looking up
+ * or removing an invocation allocates nothing.
+ *
+ * <p>If {@link FileIO#dkconfig_invocation_spill_age} is positive, invocations that have been
+ * waiting for their exits for longer than that many entries are written to a temporary file, and
+ * only their file offset is kept in memory. An invocation is read back when its exit is seen. When
+ * more than half of the file is taken by invocations that have been read back, and it is larger
+ * than {@link #MIN_COMPACT_SIZE}, the file is compacted, so that its size stays proportional to
+ * the number of invocations still spilled.
+ */
+public final class InvocationTable implements Serializable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** The spill file is not compacted until it is at least this large, in bytes. */
+  public static final long MIN_COMPACT_SIZE = 1 << 20;
+
+  // Slot states
+  private static final byte EMPTY = 0;
+  private static final byte PRESENT = 1;
+  private static final byte SPILLED = 2;
+
+  // Parallel arrays, indexed by slot.  The capacity is a power of two.
+  private transient int[] keys;
+  private transient byte[] states;
+  private transient /*@Nullable*/ FileIO.Invocation[] invocations;
+  /** For a PRESENT slot, when it was put; for a SPILLED slot, its offset in spill_file. */
+  private transient long[] stamps;
+
+  /** Number of occupied slots. */
+  private transient int size = 0;
+
+  /** Number of invocations put so far; the stamp of the next one. */
+  private transient long num_puts = 0;
+
+  /** The value of num_puts when spill_old_invocations last ran. */
+  private transient long last_spill_check = 0;
+
+  /** Holds spilled invocations; created when the first one is spilled. */
+  private transient /*@Nullable*/ RandomAccessFile spill_file = null;
+
+  /** The name of spill_file, which is deleted when it is closed. */
+  private transient /*@Nullable*/ File spill_path = null;
+
+  /** The length of spill_file, in bytes. */
+  private transient long spill_length = 0;
+
+  /** The number of bytes of spill_file that hold invocations that are still spilled. */
+  private transient long spill_live_bytes = 0;
+
+  /** The program points of spilled invocations, by name. */
+  private transient /*@Nullable*/ HashMap<String, PptTopLevel> spill_ppts = null;
+
+  public InvocationTable() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    states = new byte[capacity];
+    invocations = new /*@Nullable*/ FileIO.Invocation[capacity];
+    stamps = new long[capacity];
+  }
+
+  /** Returns the slot for a nonce: where it is, or else the empty slot where it would go. */
+  private int find_slot(int nonce) {
+    int mask = keys.length - 1;
+    // Spread the bits, since nonces are usually consecutive
+    int slot = (nonce * 0x9E3779B9) & mask;
+    while (states[slot] != EMPTY && keys[slot] != nonce) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(int nonce) {
+    return states[find_slot(nonce)] != EMPTY;
+  }
+
+  /** Adds an invocation, replacing any previous invocation with the same nonce. */
+  public void put(int nonce, FileIO.Invocation invok) {
+    if ((size + 1) * 4 > keys.length * 3) {
+      rehash(keys.length * 2);
+    }
+    int slot = find_slot(nonce);
+    if (states[slot] == EMPTY) {
+      size++;
+    } else if (states[slot] == SPILLED) {
+      free_spilled(stamps[slot]);
+    }
+    keys[slot] = nonce;
+    states[slot] = PRESENT;
+    invocations[slot] = invok;
+    stamps[slot] = num_puts++;
+
+    int spill_age = FileIO.dkconfig_invocation_spill_age;
+    if (spill_age > 0 && num_puts - last_spill_check >= spill_age) {
+      spill_old_invocations(spill_age);
+    }
+  }
+
+  /** Removes and returns the invocation with the given nonce, or returns null if there is none. */
+  public /*@Nullable*/ FileIO.Invocation remove(int nonce) {
+    int slot = find_slot(nonce);
+    if (states[slot] == EMPTY) {
+      return null;
+    }
+    FileIO.Invocation result = get_slot(slot);
+    boolean spilled = (states[slot] == SPILLED);
+    long offset = stamps[slot];
+    delete_slot(slot);
+    if (spilled) {
+      free_spilled(offset);
+    }
+    return result;
+  }
+
+  /** Returns the invocation in an occupied slot, reading it back if it was spilled. */
+  private FileIO.Invocation get_slot(int slot) {
+    if (states[slot] == PRESENT) {
+      FileIO.Invocation invok = invocations[slot];
+      assert invok != null;
+      return invok;
+    }
+    try {
+      return read_spilled(stamps[slot]);
+    } catch (IOException e) {
+      throw new Error("Unable to read spilled invocation", e);
+    }
+  }
+
+  /**
+   * Empties the slot, and moves later entries of its probe sequence back so that no lookup stops
+   * early at the hole.
+   */
+  private void delete_slot(int slot) {
+    size--;
+    int mask = keys.length - 1;
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (states[next] != EMPTY) {
+      int home = (keys[next] * 0x9E3779B9) & mask;
+      // Move next into the hole unless its home lies cyclically in (hole, next]
+      boolean stays = (hole <= next) ? (hole < home && home <= next) : (hole < home || home <= next);
+      if (!stays) {
+        keys[hole] = keys[next];
+        states[hole] = states[next];
+        invocations[hole] = invocations[next];
+        stamps[hole] = stamps[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    states[hole] = EMPTY;
+    invocations[hole] = null;
+  }
+
+  private void rehash(int capacity) {
+    int[] old_keys = keys;
+    byte[] old_states = states;
+    /*@Nullable*/ FileIO.Invocation[] old_invocations = invocations;
+    long[] old_stamps = stamps;
+    allocate(capacity);
+    for (int i = 0; i < old_keys.length; i++) {
+      if (old_states[i] != EMPTY) {
+        int slot = find_slot(old_keys[i]);
+        keys[slot] = old_keys[i];
+        states[slot] = old_states[i];
+        invocations[slot] = old_invocations[i];
+        stamps[slot] = old_stamps[i];
+      }
+    }
+  }
+
+  /** Returns the nonces in the table, in increasing order. */
+  public int[] sorted_keys() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (states[i] != EMPTY) {
+        result[n++] = keys[i];
+      }
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  /** Returns the invocation with the given nonce, which must be in the table. */
+  public FileIO.Invocation get(int nonce) {
+    int slot = find_slot(nonce);
+    assert states[slot] != EMPTY : nonce;
+    return get_slot(slot);
+  }
+
+  /** Returns all of the invocations, in no particular order. */
+  public List<FileIO.Invocation> values() {
+    List<FileIO.Invocation> result = new ArrayList<FileIO.Invocation>(size);
+    for (int i = 0; i < keys.length; i++) {
+      if (states[i] != EMPTY) {
+        result.add(get_slot(i));
+      }
+    }
+    return result;
+  }
+
+  /** Removes all invocations. */
+  public void clear() {
+    allocate(INITIAL_CAPACITY);
+    size = 0;
+    close_spill_file();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Spilling
+  ///
+
+  /** Writes to the spill file each invocation that was put more than age puts ago. */
+  private void spill_old_invocations(int age) {
+    last_spill_check = num_puts;
+    try {
+      if (spill_file == null) {
+        File file = File.createTempFile("daikon-invocations", ".tmp");
+        file.deleteOnExit();
+        spill_file = new RandomAccessFile(file, "rw");
+        // Deleting the file now would be cleaner, but is not portable.
+        spill_path = file;
+        spill_length = 0;
+        spill_live_bytes = 0;
+      }
+      for (int i = 0; i < keys.length; i++) {
+        if (states[i] == PRESENT && num_puts - stamps[i] > age) {
+          FileIO.Invocation invok = invocations[i];
+          assert invok != null;
+          stamps[i] = write_spilled(invok);
+          states[i] = SPILLED;
+          invocations[i] = null;
+        }
+      }
+    } catch (IOException e) {
+      throw new Error("Unable to spill invocations", e);
+    }
+  }
+
+  /** Appends the invocation to the spill file and returns its offset. */
+  /*@RequiresNonNull("spill_file")*/
+  private long write_spilled(FileIO.Invocation invok) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(invok.ppt.name());
+    out.writeInt(invok.vals.length);
+    out.write(invok.mods);
+    for (VarInfo vi : invok.ppt.var_infos) {
+      if (vi.is_static_constant) continue;
+      int index = vi.value_index;
+      if (index >= invok.vals.length) continue;
+      if (ValueTuple.modIsMissingNonsensical(invok.mods[index])) continue;
+      Object val = invok.vals[index];
+      assert val != null : vi;
+      BinaryDtrace.write_value(out, BinaryDtrace.value_kind(vi.rep_type), val);
+    }
+    out.flush();
+
+    if (spill_ppts == null) {
+      spill_ppts = new HashMap<String, PptTopLevel>();
+    }
+    spill_ppts.put(invok.ppt.name(), invok.ppt);
+
+    long offset = spill_length;
+    spill_file.seek(offset);
+    spill_file.writeInt(bytes.size());
+    spill_file.write(bytes.toByteArray());
+    spill_length += 4 + bytes.size();
+    spill_live_bytes += 4 + bytes.size();
+    return offset;
+  }
+
+  /**
+   * Records that the invocation at the given offset of the spill file is no longer needed, and
+   * compacts the file if most of it is no longer needed.
+   */
+  private void free_spilled(long offset) {
+    assert spill_file != null;
+    try {
+      spill_file.seek(offset);
+      spill_live_bytes -= 4 + spill_file.readInt();
+      if (spill_live_bytes == 0) {
+        spill_file.setLength(0);
+        spill_length = 0;
+      } else if (spill_length >= MIN_COMPACT_SIZE && spill_live_bytes * 2 < spill_length) {
+        compact_spill_file();
+      }
+    } catch (IOException e) {
+      throw new Error("Unable to compact spilled invocations", e);
+    }
+  }
+
+  /**
+   * Moves the invocations that are still spilled to the start of the spill file, in their current
+   * order, and truncates the file after them. Each one moves towards the start of the file, so it
+   * never overwrites one that has not been moved yet.
+   */
+  /*@RequiresNonNull("spill_file")*/
+  private void compact_spill_file() throws IOException {
+    List<Integer> spilled = new ArrayList<Integer>();
+    for (int i = 0; i < keys.length; i++) {
+      if (states[i] == SPILLED) {
+        spilled.add(i);
+      }
+    }
+    Collections.sort(
+        spilled,
+        new Comparator<Integer>() {
+          public int compare(Integer slot1, Integer slot2) {
+            return Long.compare(stamps[slot1], stamps[slot2]);
+          }
+        });
+
+    byte[] buffer = new byte[0];
+    long write_pos = 0;
+    for (int slot : spilled) {
+      long offset = stamps[slot];
+      spill_file.seek(offset);
+      int len = spill_file.readInt();
+      if (offset != write_pos) {
+        if (buffer.length < len) {
+          buffer = new byte[len];
+        }
+        spill_file.readFully(buffer, 0, len);
+        spill_file.seek(write_pos);
+        spill_file.writeInt(len);
+        spill_file.write(buffer, 0, len);
+        stamps[slot] = write_pos;
+      }
+      write_pos += 4 + len;
+    }
+    assert write_pos == spill_live_bytes : write_pos + " " + spill_live_bytes;
+    spill_file.setLength(write_pos);
+    spill_length = write_pos;
+  }
+
+  /** Returns the size of the spill file, in bytes, or 0 if there is none. */
+  public long spill_file_size() {
+    return spill_length;
+  }
+
+  /** Reads the invocation at the given offset of the spill file. */
+  private FileIO.Invocation read_spilled(long offset) throws IOException {
+    assert spill_file != null;
+    spill_file.seek(offset);
+    byte[] bytes = new byte[spill_file.readInt()];
+    spill_file.readFully(bytes);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+    String ppt_name = in.readUTF();
+    PptTopLevel ppt = (spill_ppts == null) ? null : spill_ppts.get(ppt_name);
+    if (ppt == null) {
+      throw new IOException("No program point " + ppt_name + " for spilled invocation");
+    }
+    int len = in.readInt();
+    byte[] mods = new byte[len];
+    in.readFully(mods);
+    /*@Nullable*/ Object[] vals = new /*@Nullable*/ Object[len];
+    for (VarInfo vi : ppt.var_infos) {
+      if (vi.is_static_constant) continue;
+      int index = vi.value_index;
+      if (index >= len) continue;
+      if (ValueTuple.modIsMissingNonsensical(mods[index])) continue;
+      vals[index] = BinaryDtrace.read_value(in, BinaryDtrace.value_kind(vi.rep_type));
+    }
+    return new FileIO.Invocation(ppt, vals, mods);
+  }
+
+  /** Closes and deletes the spill file, if there is one. */
+  private void close_spill_file() {
+    if (spill_file != null) {
+      try {
+        spill_file.close();
+      } catch (IOException e) {
+        // The file is temporary; nothing more to do.
+      }
+      spill_file = null;
+    }
+    if (spill_path != null) {
+      spill_path.delete();
+      spill_path = null;
+    }
+    spill_length = 0;
+    spill_live_bytes = 0;
+    spill_ppts = null;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Serialization
+  ///
+
+  // Spilled invocations are read back and written in full, so that the
+  // serialized form does not depend on the spill file.
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    int[] nonces = sorted_keys();
+    out.writeInt(nonces.length);
+    for (int nonce : nonces) {
+      out.writeInt(nonce);
+      out.writeObject(get(nonce));
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    allocate(INITIAL_CAPACITY);
+    int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      int nonce = in.readInt();
+      put(nonce, (FileIO.Invocation) in.readObject());
+    }
+  }
+}
@@ -188,4 +188,81 @@ public class ModBitTracker implements Serializable, Cloneable {
 
     if (debug) checkRep();
   }
+
+  /**
+   * Appends to this the modbits of every sample in child. For each variable v of this,
+   * child_vars[v] is the index of the corresponding variable of child, or -1 if there is none, in
+   * which case v is missing from each appended sample. This has the same effect as calling {@link
+   * #add} once per sample of child, but copies each run of set bits at once instead of testing the
+   * bits one by one.
+   */
+  public void add_all(ModBitTracker child, int[] child_vars) {
+    if (debug) checkRep();
+    assert child_vars.length == num_vars : "child_vars.length=" + child_vars.length;
+    int count = child.num_samples;
+    if (num_vars == 0 || count == 0) {
+      num_samples += count;
+      return;
+    }
+
+    // Each equivalence set of this is given the bits of one equivalence
+    // set of child (its key), or no bits at all (key -1).  Variables that
+    // share a set here but take different child sets are split apart.
+    int[] set_key = new int[num_vars];
+    boolean[] keyed = new boolean[num_vars];
+    Map<Long, Integer> splits = null;
+    for (int v = 0; v < num_vars; v++) {
+      int key = child_key(child, child_vars[v]);
+      int this_index = index[v];
+      if (!keyed[this_index]) {
+        set_key[this_index] = key;
+        keyed[this_index] = true;
+      } else if (set_key[this_index] != key) {
+        if (splits == null) {
+          splits = new HashMap<Long, Integer>();
+        }
+        Long split_key = (((long) this_index) << 32) | (key + 1);
+        Integer split_index = splits.get(split_key);
+        if (split_index == null) {
+          split_index = split(this_index);
+          splits.put(split_key, split_index);
+          set_key[split_index] = key;
+          keyed[split_index] = true;
+        }
+        index[v] = split_index;
+      }
+    }
+
+    for (int i = 0; i < num_sets; i++) {
+      if (set_key[i] == -1) {
+        continue;
+      }
+      @SuppressWarnings("nullness") // application invariant: non-null up to index=num_sets
+      /*@NonNull*/ BitSet bs = modbits_arrays[i];
+      @SuppressWarnings("nullness") // application invariant: non-null up to index=num_sets
+      /*@NonNull*/ BitSet child_bs = child.modbits_arrays[set_key[i]];
+      for (int start = child_bs.nextSetBit(0); start >= 0; ) {
+        int end = child_bs.nextClearBit(start);
+        bs.set(num_samples + start, num_samples + end);
+        start = child_bs.nextSetBit(end);
+      }
+    }
+    num_samples += count;
+
+    if (debug) checkRep();
+  }
+
+  /**
+   * Returns the equivalence set of child whose bits the given child variable has, or -1 if the
+   * variable is -1 (no variable) or is missing from every sample.
+   */
+  @SuppressWarnings(
+      "nullness") // application invariant: index[varindex] is an index for a non-null BitSet in modbits_arrays
+  private static int child_key(ModBitTracker child, int child_var) {
+    if (child_var == -1) {
+      return -1;
+    }
+    int child_index = child.index[child_var];
+    return child.modbits_arrays[child_index].isEmpty() ? -1 : child_index;
+  }
 }
@@ -0,0 +1,265 @@
+package daikon;
+
+import daikon.suppress.NIS;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Adds samples to their program points in worker threads, when {@link
+ * FileIO#dkconfig_inference_threads} is greater than 1. Each program point has a queue of the
+ * samples that are waiting to be added to it. At most one worker at a time drains a given queue, so
+ * the samples at a program point are added in the order in which they were read, while the queues
+ * of different program points are drained concurrently.
+ *
+ * <p>Only the leaves of the dataflow hierarchy receive samples while the trace is read, and they
+ * are independent of one another until the upper program points are created from them. Some state
+ * is nonetheless shared between program points: the intern tables, which are not thread-safe, and
+ * the state of the non-instantiating suppressions ({@link NIS}). All of it is guarded by the
+ * monitor of {@code Intern.class}. The thread that reads the trace holds it while reading and
+ * preparing each sample, and {@link PptTopLevel#add_bottom_up} holds it while it creates or
+ * unsuppresses invariants. Adding the sample to the slices, which is where most of the time goes,
+ * runs without it.
+ */
+final class ParallelInference {
+
+  private ParallelInference() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The worker threads, or null if no sample has been queued since the last shutdown. */
+  private static /*@Nullable*/ ExecutorService pool = null;
+
+  /** The queue of each program point. Used only by the thread that reads the trace. */
+  private static Map<PptTopLevel, PptQueue> queues = new IdentityHashMap<PptTopLevel, PptQueue>();
+
+  /** Guards pending and failure, and is notified when they change. */
+  private static final Object pending_lock = new Object();
+
+  /** Number of samples that have been queued but not yet added to their program points. */
+  private static int pending = 0;
+
+  /** The first exception thrown by a worker, or null. */
+  private static /*@Nullable*/ Error failure = null;
+
+  /**
+   * A sample waiting to be added to a program point, with the position in the trace file after
+   * which it was read.
+   */
+  private static final class Sample {
+    final ValueTuple vt;
+    final int count;
+    final /*@Nullable*/ String filename;
+    final int line_number;
+
+    Sample(ValueTuple vt, int count, /*@Nullable*/ String filename, int line_number) {
+      this.vt = vt;
+      this.count = count;
+      this.filename = filename;
+      this.line_number = line_number;
+    }
+  }
+
+  /**
+   * An Error thrown while a worker added a sample to a program point. Records where the sample was
+   * read, since the reading thread has usually moved past it by the time the Error is rethrown.
+   */
+  static final class SampleError extends Error {
+    static final long serialVersionUID = 20261018L;
+
+    /** The trace file from which the sample was read, or null if it is not known. */
+    final /*@Nullable*/ String filename;
+
+    /** The line number in filename at which the sample ended. */
+    final int line_number;
+
+    SampleError(String msg, Throwable cause, /*@Nullable*/ String filename, int line_number) {
+      super(msg, cause);
+      this.filename = filename;
+      this.line_number = line_number;
+    }
+  }
+
+  /** The samples waiting to be added to one program point. */
+  private static final class PptQueue implements Runnable {
+    final PptTopLevel ppt;
+    // The following fields are guarded by this.
+    final ArrayDeque<Sample> samples = new ArrayDeque<Sample>();
+    /** True if a worker is draining this queue or has been asked to. */
+    boolean scheduled = false;
+
+    PptQueue(PptTopLevel ppt) {
+      this.ppt = ppt;
+    }
+
+    @SuppressWarnings({
+      "flowexpr.parse.error",
+      "contracts.precondition.not.satisfied"
+    }) // NIS is set up before any trace is read
+    public void run() {
+      while (true) {
+        Sample sample;
+        synchronized (this) {
+          sample = samples.poll();
+          if (sample == null) {
+            scheduled = false;
+            return;
+          }
+        }
+        try {
+          if (!failed()) {
+            Object dummy = ppt.add_bottom_up(sample.vt, sample.count);
+          }
+        } catch (Throwable e) {
+          synchronized (pending_lock) {
+            if (failure == null) {
+              failure =
+                  new SampleError(
+                      "Error while adding a sample to " + ppt.name(),
+                      e,
+                      sample.filename,
+                      sample.line_number);
+            }
+          }
+        } finally {
+          synchronized (pending_lock) {
+            pending--;
+            pending_lock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+  /** Returns true if samples should be added to their program points by worker threads. */
+  static boolean enabled() {
+    return FileIO.dkconfig_inference_threads > 1
+        && Daikon.use_dataflow_hierarchy
+        && !PrintInvariants.print_discarded_invariants;
+  }
+
+  /**
+   * Queues a sample to be added to ppt by a worker thread. Must be called by the thread that reads
+   * the trace. filename and line_number give the position in the trace after the sample, which is
+   * reported if adding the sample fails; filename is null if the position is not known.
+   */
+  static void add(
+      PptTopLevel ppt, ValueTuple vt, int count, /*@Nullable*/ String filename, int line_number) {
+    ExecutorService workers = pool;
+    if (workers == null) {
+      workers =
+          Executors.newFixedThreadPool(FileIO.dkconfig_inference_threads, new WorkerFactory());
+      pool = workers;
+    }
+    PptQueue queue = queues.get(ppt);
+    if (queue == null) {
+      queue = new PptQueue(ppt);
+      queues.put(ppt, queue);
+    }
+
+    synchronized (pending_lock) {
+      pending++;
+    }
+    boolean schedule;
+    synchronized (queue) {
+      queue.samples.add(new Sample(vt, count, filename, line_number));
+      schedule = !queue.scheduled;
+      queue.scheduled = true;
+    }
+    if (schedule) {
+      workers.execute(queue);
+    }
+  }
+
+  /**
+   * Waits until fewer than {@code FileIO.dkconfig_inference_queue_limit} samples are waiting to be
+   * processed. Called before each record is read, so that reading does not get arbitrarily far
+   * ahead of the workers. Must not be called while holding the monitor of {@code Intern.class}.
+   * Rethrows, as a {@link SampleError}, an Error thrown by a worker, which FileIO handles as it
+   * would one thrown while the reading thread processed a sample.
+   */
+  static void await_capacity() {
+    if (pool == null) {
+      return;
+    }
+    synchronized (pending_lock) {
+      while (pending >= FileIO.dkconfig_inference_queue_limit && failure == null) {
+        wait_for_workers();
+      }
+    }
+    rethrow_failure();
+  }
+
+  /**
+   * Waits until every queued sample has been added to its program point. Must not be called while
+   * holding the monitor of {@code Intern.class}. Rethrows an Error thrown by a worker, as
+   * await_capacity does.
+   */
+  static void drain() {
+    if (pool == null) {
+      return;
+    }
+    synchronized (pending_lock) {
+      while (pending > 0) {
+        wait_for_workers();
+      }
+    }
+    rethrow_failure();
+  }
+
+  /** Waits until every queued sample has been added to its program point, then stops the workers. */
+  static void shutdown() {
+    ExecutorService workers = pool;
+    if (workers == null) {
+      return;
+    }
+    try {
+      drain();
+    } finally {
+      workers.shutdown();
+      pool = null;
+      queues.clear();
+    }
+  }
+
+  /** Waits for a worker to finish a sample. Must be called while holding pending_lock. */
+  private static void wait_for_workers() {
+    try {
+      pending_lock.wait();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    }
+  }
+
+  private static boolean failed() {
+    synchronized (pending_lock) {
+      return failure != null;
+    }
+  }
+
+  /** If a worker has thrown an exception, rethrows it in the calling thread. */
+  private static void rethrow_failure() {
+    Error e;
+    synchronized (pending_lock) {
+      e = failure;
+      failure = null;
+    }
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  /** Creates the worker threads, which do not keep the JVM alive. */
+  private static final class WorkerFactory implements ThreadFactory {
+    private int num_threads = 0;
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "daikon-inference-" + (++num_threads));
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package daikon;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Merges invariants up the program point hierarchy in several threads, when {@link
+ * PptTopLevel#dkconfig_merge_threads} is greater than 1. The merge is a fork/join computation over
+ * the hierarchy: the task for a program point forks the tasks for its children, waits for them, and
+ * then merges their invariants into it, exactly as {@link PptTopLevel#mergeInvs} does. Each program
+ * point has a single task, so a program point with several parents is merged once, before any of
+ * its parents.
+ *
+ * <p>Merging a program point reads its children and can also modify them: the invariants that
+ * non-instantiating suppressions (NIS) hide are temporarily created in the children, and with
+ * {@code PptTopLevel.dkconfig_remove_merged_invs} the merged invariants are removed from them. So
+ * two parents of the same child are not merged at the same time: each merge holds the monitors of
+ * the children it reads. The intern tables and the suppression state, which all program points
+ * share, are guarded by the monitor of {@code Intern.class}, as when samples are processed by
+ * several threads (see {@link ParallelInference}).
+ */
+final class ParallelMerge {
+
+  private ParallelMerge() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The task that merges the invariants of one program point. */
+  private static final class MergeTask extends RecursiveAction {
+    static final long serialVersionUID = 20261018L;
+
+    final PptTopLevel ppt;
+    /** The tasks of ppt's children, without duplicates. Set before any task is run. */
+    final List<MergeTask> children = new ArrayList<MergeTask>();
+    /** Set when the task is forked, so that a task with several parents is forked only once. */
+    final AtomicBoolean forked = new AtomicBoolean(false);
+
+    MergeTask(PptTopLevel ppt) {
+      this.ppt = ppt;
+    }
+
+    /** Forks this task, unless it has already been forked. */
+    void fork_once() {
+      if (forked.compareAndSet(false, true)) {
+        fork();
+      }
+    }
+
+    protected void compute() {
+      for (MergeTask child : children) {
+        child.fork_once();
+      }
+      for (MergeTask child : children) {
+        child.join();
+      }
+
+      // The same checks as in mergeInvs
+      if (ppt.children.size() == 0) {
+        assert ppt.equality_view != null
+            : "children.size() == 0 and equality_view == null for " + ppt;
+        return;
+      }
+      if (ppt.invariants_merged) {
+        return;
+      }
+      ppt.in_merge = true;
+
+      // Lock the children in a fixed order, so that two parents that share
+      // children cannot deadlock.
+      List<PptTopLevel> locked = new ArrayList<PptTopLevel>(children.size());
+      for (MergeTask child : children) {
+        locked.add(child.ppt);
+      }
+      Collections.sort(
+          locked,
+          new Comparator<PptTopLevel>() {
+            public int compare(PptTopLevel p1, PptTopLevel p2) {
+              return p1.name.compareTo(p2.name);
+            }
+          });
+      merge_holding(locked, 0);
+    }
+
+    /** Merges ppt while holding the monitors of locked[i..]. */
+    private void merge_holding(List<PptTopLevel> locked, int i) {
+      if (i == locked.size()) {
+        ppt.merge_from_children();
+        return;
+      }
+      synchronized (locked.get(i)) {
+        merge_holding(locked, i + 1);
+      }
+    }
+  }
+
+  /**
+   * Merges the invariants of every program point in all_ppts that has children, using
+   * num_threads threads. Returns false, having merged nothing, if the hierarchy has a cycle; the
+   * caller should then merge the program points one at a time, as mergeInvs tolerates cycles.
+   */
+  static boolean merge(PptMap all_ppts, int num_threads) {
+    Map<PptTopLevel, MergeTask> tasks = new IdentityHashMap<PptTopLevel, MergeTask>();
+    Set<PptTopLevel> path = Collections.newSetFromMap(new IdentityHashMap<PptTopLevel, Boolean>());
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      if (!add_tasks(ppt, tasks, path)) {
+        return false;
+      }
+    }
+
+    final Collection<MergeTask> all_tasks = tasks.values();
+    ForkJoinPool pool = new ForkJoinPool(num_threads);
+    try {
+      pool.invoke(
+          new RecursiveAction() {
+            static final long serialVersionUID = 20261018L;
+
+            protected void compute() {
+              for (MergeTask task : all_tasks) {
+                task.fork_once();
+              }
+              for (MergeTask task : all_tasks) {
+                task.join();
+              }
+            }
+          });
+    } finally {
+      pool.shutdown();
+    }
+    return true;
+  }
+
+  /**
+   * Creates the tasks of ppt and of its descendants that do not have one yet. Returns false if a
+   * cycle is found. path holds the program points from the current root down to ppt.
+   */
+  private static boolean add_tasks(
+      PptTopLevel ppt, Map<PptTopLevel, MergeTask> tasks, Set<PptTopLevel> path) {
+    if (tasks.containsKey(ppt)) {
+      return true;
+    }
+    if (!path.add(ppt)) {
+      return false;
+    }
+    MergeTask task = new MergeTask(ppt);
+    for (PptRelation rel : ppt.children) {
+      if (!add_tasks(rel.child, tasks, path)) {
+        return false;
+      }
+      MergeTask child_task = tasks.get(rel.child);
+      assert child_task != null;
+      if (!task.children.contains(child_task)) {
+        task.children.add(child_task);
+      }
+    }
+    path.remove(ppt);
+    tasks.put(ppt, task);
+    return true;
+  }
+}
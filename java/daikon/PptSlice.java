@@ -165,6 +165,14 @@ public abstract class PptSlice extends Ppt {
    */
   abstract List<Invariant> add(ValueTuple full_vt, int count);
 
+  /**
+   * Like {@link #add(ValueTuple,int)}, but adds the invariants that weakened to weakened instead of
+   * returning them. Subclasses override this to avoid allocating a list for every sample.
+   */
+  void add(ValueTuple full_vt, int count, Collection<Invariant> weakened) {
+    weakened.addAll(add(full_vt, count));
+  }
+
   /** Removes any falsified invariants from our list. */
   /*@RequiresNonNull("NIS.suppressor_map")*/
   protected void remove_falsified() {
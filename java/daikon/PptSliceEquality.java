@@ -242,12 +242,13 @@ public class PptSliceEquality extends PptSlice {
   //
   public List<Invariant> add(ValueTuple vt, int count) {
 
-    LinkedList<Equality> allNewInvs = new LinkedList<Equality>();
-    LinkedList<Invariant> weakenedInvs = new LinkedList<Invariant>();
+    // Allocated only if some set splits, which most samples do not cause
+    /*@Nullable*/ List<Equality> allNewInvs = null;
+    List<Invariant> weakenedInvs = Collections.emptyList();
 
     // Loop through each existing equality invariant
-    for (Invariant invar : invs) {
-      Equality inv = (Equality) invar;
+    for (int inv_index = 0; inv_index < invs.size(); inv_index++) {
+      Equality inv = (Equality) invs.get(inv_index);
 
       // Add this sample to the invariant and track any vars that fall
       // out of the set.
@@ -255,6 +256,10 @@ public class PptSliceEquality extends PptSlice {
 
       // If some vars fell out
       if (nonEqualVis.size() > 0) {
+        if (allNewInvs == null) {
+          allNewInvs = new ArrayList<Equality>();
+          weakenedInvs = new ArrayList<Invariant>();
+        }
 
         // Create new equality sets for all of the non-equal vars
         List<Equality> newInvs = createEqualityInvs(nonEqualVis, vt, inv, count);
@@ -292,7 +297,9 @@ public class PptSliceEquality extends PptSlice {
     }
 
     // Add all of the new equality sets to our list
-    invs.addAll(allNewInvs);
+    if (allNewInvs != null) {
+      invs.addAll(allNewInvs);
+    }
 
     return weakenedInvs;
   }
@@ -322,14 +329,21 @@ public class PptSliceEquality extends PptSlice {
   private List<Equality> createEqualityInvs(
       List<VarInfo> vis, ValueTuple vt, Equality leader, int count) {
     assert vis.size() > 0;
-    HashMap<Object, List<VarInfo>> multiMap =
-        new HashMap<Object, List<VarInfo>>(); /* key is a value */
+    // Group the variables by value.  Each value is hashed into an
+    // open-addressing table that holds the number of its group (plus 1).
+    int num_vis = vis.size();
+    int[] table = new int[Integer.highestOneBit(num_vis) * 4];
+    int mask = table.length - 1;
+    /*@Nullable*/ Object[] group_keys = new /*@Nullable*/ Object[num_vis];
+    List<List<VarInfo>> groups = new ArrayList<List<VarInfo>>();
     List<VarInfo> out_of_bounds = new ArrayList<VarInfo>();
     for (VarInfo vi : vis) {
+      Object key;
       if (vi.missingOutOfBounds()) {
         out_of_bounds.add(vi);
+        continue;
       } else if (vt.isMissing(vi)) {
-        addToBindingList(multiMap, dummyMissing, vi);
+        key = dummyMissing;
       } else {
         if (vi.getValue(vt) == null) {
           System.out.printf(
@@ -340,16 +354,35 @@ public class PptSliceEquality extends PptSlice {
           System.out.println("return value = " + Debug.toString(rv.getValue(vt)));
           System.out.println("At line number " + FileIO.get_linenum());
         }
-        addToBindingList(multiMap, vi.getValue(vt), vi);
+        key = vi.getValue(vt);
+      }
+      int hash = key.hashCode();
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (true) {
+        int group = table[slot] - 1;
+        if (group == -1) {
+          // A value not seen before starts a new group
+          table[slot] = groups.size() + 1;
+          group_keys[groups.size()] = key;
+          List<VarInfo> list = new ArrayList<VarInfo>();
+          list.add(vi);
+          groups.add(list);
+          break;
+        }
+        if (key.equals(group_keys[group])) {
+          groups.get(group).add(vi);
+          break;
+        }
+        slot = (slot + 1) & mask;
       }
     }
     // Why use an array?  Because we'll be sorting shortly
     /*NNC:@MonotonicNonNull*/ Equality[] resultArray =
-        new Equality[multiMap.values().size() + out_of_bounds.size()];
+        new Equality[groups.size() + out_of_bounds.size()];
     int resultCount = 0;
-    for (Map.Entry</*@KeyFor("multiMap")*/ Object, List<VarInfo>> entry : multiMap.entrySet()) {
-      Object key = entry.getKey();
-      List<VarInfo> list = entry.getValue();
+    for (int group = 0; group < groups.size(); group++) {
+      /*@Nullable*/ Object key = group_keys[group];
+      List<VarInfo> list = groups.get(group);
       assert list.size() > 0;
       Equality eq = new Equality(list, this);
       @SuppressWarnings("interning") // special value
@@ -413,29 +446,6 @@ public class PptSliceEquality extends PptSlice {
     return result;
   }
 
-  /**
-   * Map maps keys to non-empty lists of elements. This method adds var to the list mapped by key,
-   * creating a new list for key if one doesn't already exist.
-   *
-   * <p>Requires: Each value in map is a list of size 1 or greater
-   *
-   * <p>Ensures: Each value in map is a list of size 1 or greater
-   *
-   * @param map the map to add the bindings to
-   * @param key if there is already a List associated with key, then add value to key. Otherwise
-   *     create a new List associated with key and insert value.
-   * @param value the value to insert into the List mapped to key
-   */
-  private <T> void addToBindingList(Map<T, List<VarInfo>> map, T key, VarInfo value) {
-    assert key != null;
-    List<VarInfo> elements = map.get(key);
-    if (elements == null) {
-      elements = new LinkedList<VarInfo>();
-      map.put(key, elements);
-    }
-    elements.add(value);
-  }
-
   /**
    * Instantiate invariants from each inv's leader. This is like instantiate_invariants at the start
    * of reading the trace file, where we create new PptSliceNs. This is called when newVis have just
@@ -507,6 +517,7 @@ public class PptSliceEquality extends PptSlice {
       slice.repCheck();
       parent.addSlice(slice);
     }
+    parent.copy_skipped_ternary_slices(leader, newVis);
 
     parent.repCheck();
 
@@ -63,7 +63,7 @@ public class PptTopLevel extends Ppt {
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
-  static final long serialVersionUID = 20071129L;
+  static final long serialVersionUID = 20261018L;
 
   // Variables starting with dkconfig_ should only be set via the
   // daikon.config.Configuration interface.
@@ -81,11 +81,57 @@ public class PptTopLevel extends Ppt {
   public static boolean dkconfig_remove_merged_invs = false;
 
   /**
-   * Boolean. Needed by the NIS.falsified method when keeping stats to figure out how many falsified
+   * Integer. If greater than 1, the number of threads that {@link Daikon#createUpperPpts} uses to
+   * merge invariants up the program point hierarchy. A program point is merged once all of its
+   * children have been, so program points in different subtrees are merged concurrently; see
+   * {@link ParallelMerge}. If 0 or 1, program points are merged one at a time.
+   */
+  public static int dkconfig_merge_threads = 0;
+
+  /**
+   * Integer. If positive, a program point is considered to have converged once this many
+   * consecutive samples have neither weakened nor falsified any invariant, nor changed its set of
+   * slices or dynamic constants. After that, only one sample in {@code
+   * dkconfig_converged_sample_rate} is processed at the program point, until a processed sample
+   * changes something. The skipped samples are not counted in the program point's number of
+   * samples, so confidence is computed from the samples that were processed; the number skipped is
+   * available from {@link #num_skipped_samples}. Invariants that only a skipped sample would have
+   * falsified may be reported. If 0, every sample is processed.
+   */
+  public static int dkconfig_converge_samples = 0;
+
+  /**
+   * Integer. At a program point that has converged (see {@code dkconfig_converge_samples}), one
+   * sample in this many is processed.
+   */
+  public static int dkconfig_converged_sample_rate = 100;
+
+  /**
+   * Boolean. If true, {@link #add_bottom_up} reuses per-program-point buffers from one sample to the
+   * next instead of allocating new ones, so that in the steady state adding a sample allocates
+   * little beyond what the invariants themselves allocate. The set of weakened invariants that
+   * add_bottom_up returns is then valid only until the next sample is added to the program point.
+   */
+  public static boolean dkconfig_reuse_sample_buffers = false;
+
+  /**
+   * Integer. If positive, the maximum number of ternary slices that are instantiated at each
+   * program point. Ternary slices hold invariants such as LinearTernary and FunctionBinary; their
+   * number grows with the cube of the number of scalar variables, and at wide program points they
+   * dominate memory use and processing time. When there are more candidate triples than the
+   * budget allows, those whose variables already have the most binary invariants between them and
+   * the most distinct values are preferred. The number of triples skipped is reported at the end
+   * of processing. If 0, there is no limit.
+   */
+  public static int dkconfig_max_ternary_slices = 0;
+
+  /**
+   * Needed by the NIS.falsified method when keeping stats to figure out how many falsified
    * invariants are antecedents. Only the first pass of processing with the sample is counted toward
-   * the stats.
+   * the stats. This is per program point because samples at different program points may be
+   * processed concurrently; see {@link FileIO#dkconfig_inference_threads}.
    */
-  public static boolean first_pass_with_sample = true;
+  public transient boolean first_pass_with_sample = true;
 
   /** Ppt attributes (specified in decl records) */
   public enum PptFlags {
@@ -149,6 +195,9 @@ public class PptTopLevel extends Ppt {
   /** Debug tracer for NIS suppression statistics */
   public static final Logger debugNISStats = Logger.getLogger("daikon.PptTopLevel.NISStats");
 
+  /** Debug tracer for convergence (see dkconfig_converge_samples). */
+  public static final Logger debugConverge = Logger.getLogger("daikon.PptTopLevel.converge");
+
   public static final SimpleLog debug_varinfo = new SimpleLog(false);
 
   // These used to appear in Ppt, were moved down to PptToplevel
@@ -176,8 +225,52 @@ public class PptTopLevel extends Ppt {
   public int num_orig_vars; // number of _orig vars
   public int num_static_constant_vars; // these don't appear in the trace file
 
+  /**
+   * For each variable that appears in this ppt's samples in the trace file, in order, whether it is
+   * one of this ppt's variables. Variables omitted by {@code --var-select-pattern} or {@code
+   * --var-omit-pattern} still appear in samples; the trace reader uses this mask to skip them
+   * without examining their names. Null if no variables were being filtered when the declaration
+   * was read, or if the ppt was read back from a file and its declaration has not been read again;
+   * the reader then matches the names against the patterns instead.
+   */
+  public transient boolean /*@Nullable*/ [] trace_var_mask = null;
+
   private int values_num_samples;
 
+  /** Number of consecutive samples that changed nothing (see dkconfig_converge_samples). */
+  private transient int quiet_samples = 0;
+
+  /** True if this ppt has converged (see dkconfig_converge_samples). */
+  private transient boolean converged = false;
+
+  /** Number of samples seen since the last one processed, while converged. */
+  private transient int samples_since_processed = 0;
+
+  /** Number of samples that were skipped because this ppt had converged. */
+  private transient long skipped_samples = 0;
+
+  // The ternary slice budget is serialized with the ppt, so that a ppt that is resumed from a
+  // checkpoint or read from an invariant file neither starts a new budget nor accepts the
+  // triples it skipped earlier.
+
+  /** Number of ternary slices instantiated, counted against dkconfig_max_ternary_slices. */
+  private int ternary_slices_instantiated = 0;
+
+  /** Number of ternary slices not instantiated because of dkconfig_max_ternary_slices. */
+  private int skipped_ternary_slices = 0;
+
+  /**
+   * The triples of variables whose ternary slices were skipped because of
+   * dkconfig_max_ternary_slices, as keys made by ternary_key. Null if none were skipped.
+   */
+  private /*@Nullable*/ HashSet<Long> skipped_triples = null;
+
+  /** The weakened invariants of the current sample, if dkconfig_reuse_sample_buffers. */
+  private transient /*@Nullable*/ Set<Invariant> weakened_buffer = null;
+
+  /** A copy of the slices of the current sample, if dkconfig_reuse_sample_buffers. */
+  private transient /*@Nullable*/ ArrayList<PptSlice> slices_buffer = null;
+
   /** Keep track of which variables are valid (not missing) on each sample */
   ModBitTracker mbtracker;
 
@@ -339,6 +432,7 @@ public class PptTopLevel extends Ppt {
   /** Restore/Create interns when reading serialized object */
   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
     in.defaultReadObject();
+    first_pass_with_sample = true;
     if (name != null) {
       try {
         UtilMDE.setFinalField(this, "name", name.intern());
@@ -458,6 +552,150 @@ public class PptTopLevel extends Ppt {
     return values_num_samples;
   }
 
+  /**
+   * The number of samples that were not processed because this program point had converged. These
+   * are not included in {@link #num_samples()}.
+   *
+   * @see #dkconfig_converge_samples
+   */
+  public long num_skipped_samples() {
+    return skipped_samples;
+  }
+
+  /**
+   * The number of ternary slices that were not instantiated because they did not fit in the
+   * budget.
+   *
+   * @see #dkconfig_max_ternary_slices
+   */
+  public int num_skipped_ternary_slices() {
+    return skipped_ternary_slices;
+  }
+
+  /**
+   * Decides which of the candidate ternary slices, each given by its variables, to instantiate,
+   * and returns a parallel array that is true for each one to instantiate. If {@link
+   * #dkconfig_max_ternary_slices} is positive and the candidates do not fit in what remains of
+   * the budget, the candidates are ranked by {@link #ternary_score}, the best ones are kept, and
+   * the others are counted as skipped. Ties are broken in favor of earlier candidates.
+   */
+  boolean[] select_ternary_slices(final List<VarInfo[]> candidates) {
+    boolean[] keep = new boolean[candidates.size()];
+    int budget =
+        (dkconfig_max_ternary_slices > 0)
+            ? Math.max(0, dkconfig_max_ternary_slices - ternary_slices_instantiated)
+            : Integer.MAX_VALUE;
+    if (candidates.size() <= budget) {
+      Arrays.fill(keep, true);
+      ternary_slices_instantiated += candidates.size();
+      return keep;
+    }
+
+    final int[] scores = new int[candidates.size()];
+    Integer[] order = new Integer[candidates.size()];
+    for (int i = 0; i < order.length; i++) {
+      scores[i] = ternary_score(candidates.get(i));
+      order[i] = i;
+    }
+    // Arrays.sort is stable, so equal scores stay in candidate order
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          public int compare(Integer i1, Integer i2) {
+            return Integer.compare(scores[i2], scores[i1]);
+          }
+        });
+    for (int i = 0; i < budget; i++) {
+      keep[order[i]] = true;
+    }
+    // Remember the skipped triples, so that is_slice_ok rejects them: their
+    // invariants are never checked, so nothing (NIS in particular) may
+    // create them later.
+    if (skipped_triples == null) {
+      skipped_triples = new HashSet<Long>();
+    }
+    for (int i = 0; i < keep.length; i++) {
+      if (!keep[i]) {
+        VarInfo[] vis = candidates.get(i);
+        skipped_triples.add(ternary_key(vis[0], vis[1], vis[2]));
+      }
+    }
+    ternary_slices_instantiated += budget;
+    skipped_ternary_slices += candidates.size() - budget;
+    if (debugInstantiate.isLoggable(Level.FINE)) {
+      debugInstantiate.fine(
+          String.format(
+              "%s: instantiated %d of %d ternary slices", name(), budget, candidates.size()));
+    }
+    return keep;
+  }
+
+  /**
+   * Returns a key that identifies the triple of variables v1, v2, v3 regardless of their order,
+   * made from their varinfo_index values.
+   */
+  private static long ternary_key(VarInfo v1, VarInfo v2, VarInfo v3) {
+    long[] indices = {v1.varinfo_index, v2.varinfo_index, v3.varinfo_index};
+    Arrays.sort(indices);
+    return (indices[0] << 42) | (indices[1] << 21) | indices[2];
+  }
+
+  /**
+   * Called when the equality set of leader is split into the sets of new_leaders. Each new leader
+   * had the same values as leader, so the triples over it that correspond to a skipped triple over
+   * leader have never been checked either, and are skipped as well.
+   */
+  void copy_skipped_ternary_slices(VarInfo leader, List<VarInfo> new_leaders) {
+    if (skipped_triples == null) {
+      return;
+    }
+    List<VarInfo> choices = new ArrayList<VarInfo>(new_leaders.size() + 1);
+    choices.add(leader);
+    choices.addAll(new_leaders);
+    for (Long key : new ArrayList<Long>(skipped_triples)) {
+      int[] indices = {
+        (int) (key >>> 42), (int) ((key >>> 21) & 0x1FFFFF), (int) (key & 0x1FFFFF)
+      };
+      if (indices[0] != leader.varinfo_index
+          && indices[1] != leader.varinfo_index
+          && indices[2] != leader.varinfo_index) {
+        continue;
+      }
+      // Replace each occurrence of leader by each of the choices
+      VarInfo[] vis = new VarInfo[3];
+      for (int i = 0; i < 3; i++) {
+        vis[i] = var_infos[indices[i]];
+      }
+      for (VarInfo c1 : (vis[0] == leader) ? choices : Collections.singletonList(vis[0])) {
+        for (VarInfo c2 : (vis[1] == leader) ? choices : Collections.singletonList(vis[1])) {
+          for (VarInfo c3 : (vis[2] == leader) ? choices : Collections.singletonList(vis[2])) {
+            skipped_triples.add(ternary_key(c1, c2, c3));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A cheap estimate of how worthwhile a ternary slice over vis is: the number of binary invariants
+   * that survive between its pairs of variables, plus the number of distinct values (up to the
+   * ValueSet limit) its variables have taken. Related variables with many values are the ones over
+   * which ternary invariants are most likely to be found and justified.
+   */
+  private int ternary_score(VarInfo[] vis) {
+    int score = 0;
+    for (int i = 0; i < vis.length; i++) {
+      for (int j = i + 1; j < vis.length; j++) {
+        PptSlice2 slice = findSlice(vis[i], vis[j]);
+        if (slice != null) score += slice.invs.size();
+      }
+      if (!vis[i].is_static_constant) {
+        score += value_sets[vis[i].value_index].size();
+      }
+    }
+    return score;
+  }
+
   /** Return the number of samples where vi1 is present (not missing) */
   public int num_samples(VarInfo vi1) {
     if (vi1.is_static_constant) {
@@ -965,30 +1203,55 @@ public class PptTopLevel extends Ppt {
       }
     }
 
+    // Once this ppt has converged, process only some of its samples
+    if (converged) {
+      samples_since_processed++;
+      if (samples_since_processed < dkconfig_converged_sample_rate) {
+        skipped_samples += count;
+        return null;
+      }
+      samples_since_processed = 0;
+    }
+    int views_before = views.size();
+    int constants_before = (constants == null) ? 0 : constants.con_list.size();
+
     if (debugNISStats.isLoggable(Level.FINE)) NIS.clear_stats();
 
     // Set of invariants weakened by this sample
-    Set<Invariant> weakened_invs = new LinkedHashSet<Invariant>();
-
-    // Instantiate slices and invariants if this is the first sample
-    if (values_num_samples == 0) {
-      debugFlow.fine("  Instantiating views for the first time");
-      if (!DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
-        instantiate_views_and_invariants();
+    Set<Invariant> weakened_invs;
+    if (dkconfig_reuse_sample_buffers) {
+      if (weakened_buffer == null) {
+        weakened_buffer = new LinkedHashSet<Invariant>();
       }
+      weakened_invs = weakened_buffer;
+      weakened_invs.clear();
+    } else {
+      weakened_invs = new LinkedHashSet<Invariant>();
     }
 
-    // Add the samples to all of the equality sets, breaking sets as required
-    if (Daikon.use_equality_optimization) {
-      assert equality_view != null
-          : "@AssumeAssertion(nullness): dependent: non-null if use_equality_optimization==true";
-      weakened_invs.addAll(equality_view.add(vt, count));
-    }
+    // Creating invariants checks suppressions and interns values, which
+    // other program points share; see ParallelInference.
+    synchronized (Intern.class) {
+      // Instantiate slices and invariants if this is the first sample
+      if (values_num_samples == 0) {
+        debugFlow.fine("  Instantiating views for the first time");
+        if (!DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
+          instantiate_views_and_invariants();
+        }
+      }
 
-    // Add samples to constants, adding new invariants as required
-    if (DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
-      if (constants == null) constants = new DynamicConstants(this);
-      constants.add(vt, count);
+      // Add the samples to all of the equality sets, breaking sets as required
+      if (Daikon.use_equality_optimization) {
+        assert equality_view != null
+            : "@AssumeAssertion(nullness): dependent: non-null if use_equality_optimization==true";
+        weakened_invs.addAll(equality_view.add(vt, count));
+      }
+
+      // Add samples to constants, adding new invariants as required
+      if (DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
+        if (constants == null) constants = new DynamicConstants(this);
+        constants.add(vt, count);
+      }
     }
 
     instantiated_inv_cnt = invariant_cnt();
@@ -1070,41 +1333,61 @@ public class PptTopLevel extends Ppt {
     // Add the sample to each slice
     for (PptSlice slice : views_iterable()) {
       if (slice.invs.size() == 0) continue;
-      weakened_invs.addAll(slice.add(vt, count));
-    }
-
-    // Create any newly unsuppressed invariants
-    NIS.process_falsified_invs(this, vt);
-
-    // NIS.newly_falsified is a list of invariants that are falsified by
-    // the current sample when using the falsified method of processing
-    // suppressions.  The newly falsified invariants are added back to
-    // the slices so that they can be processed.  Thus, the falsified method
-    // is used iteratively, since these newly falsified invariants may
-    // unsuppress new invariants.  In the antecedents method, the problem
-    // does not exist, because of the way that recursive suppressions are
-    // ordered.  This loop should be executed at least once, regardless of
-    // the algorithm for processing suppressions, hence the do loop.  For,
-    // the antecedents method, the loop is executed only once because
-    // the NIS.newly_falsified list will be empty.
-
-    do {
-      // Remove any falsified invariants.  Make a copy of the original slices
-      // since NISuppressions will add new slices/invariants as others are
-      // falsified.
-      PptSlice[] slices = views.values().toArray(new /*@Nullable*/ PptSlice[views.values().size()]);
-      for (int i = 0; i < slices.length; i++) {
-        slices[i].remove_falsified();
-      }
-
-      // Apply the sample to any invariants created by non-instantiating
-      // suppressions. This must happen before we remove slices without
-      // invariants below.
-      NIS.apply_samples(vt, count);
-      first_pass_with_sample = false;
-    } while (NIS.newly_falsified.size() != 0);
+      slice.add(vt, count, weakened_invs);
+    }
+
+    // Suppressions are shared with other program points; see ParallelInference.
+    synchronized (Intern.class) {
+      // Create any newly unsuppressed invariants
+      // Every invariant the sample falsified is in weakened_invs
+      NIS.process_falsified_invs(this, vt, weakened_invs);
+
+      // NIS.newly_falsified is a list of invariants that are falsified by
+      // the current sample when using the falsified method of processing
+      // suppressions.  The newly falsified invariants are added back to
+      // the slices so that they can be processed.  Thus, the falsified method
+      // is used iteratively, since these newly falsified invariants may
+      // unsuppress new invariants.  In the antecedents method, the problem
+      // does not exist, because of the way that recursive suppressions are
+      // ordered.  This loop should be executed at least once, regardless of
+      // the algorithm for processing suppressions, hence the do loop.  For,
+      // the antecedents method, the loop is executed only once because
+      // the NIS.newly_falsified list will be empty.
 
-    first_pass_with_sample = true;
+      do {
+        // Remove any falsified invariants.  Make a copy of the original slices
+        // since NISuppressions will add new slices/invariants as others are
+        // falsified.
+        List<PptSlice> slices;
+        if (dkconfig_reuse_sample_buffers) {
+          if (slices_buffer == null) {
+            slices_buffer = new ArrayList<PptSlice>(views.size());
+          }
+          slices = slices_buffer;
+          slices.clear();
+          for (PptSlice slice : views.values()) {
+            slices.add(slice);
+          }
+        } else {
+          slices = new ArrayList<PptSlice>(views.values());
+        }
+        for (int i = 0; i < slices.size(); i++) {
+          slices.get(i).remove_falsified();
+        }
+        if (dkconfig_reuse_sample_buffers) {
+          // Do not keep the slices alive
+          slices.clear();
+        }
+
+        // Apply the sample to any invariants created by non-instantiating
+        // suppressions. This must happen before we remove slices without
+        // invariants below.
+        NIS.apply_samples(vt, count);
+        first_pass_with_sample = false;
+      } while (NIS.newly_falsified.size() != 0);
+
+      first_pass_with_sample = true;
+    }
 
     // Remove slices from the list if all of their invariants have died.
     // (Removal requires use of old-style for loop and Iterator.)
@@ -1120,6 +1403,14 @@ public class PptTopLevel extends Ppt {
 
     if (debugNISStats.isLoggable(Level.FINE)) NIS.dump_stats(debugNISStats, this);
 
+    if (dkconfig_converge_samples > 0) {
+      update_convergence(
+          weakened_invs.isEmpty()
+              && (views.size() == views_before)
+              && (constants == null || constants.con_list.size() == constants_before),
+          count);
+    }
+
     // At this point, no invariant should exist that is suppressed
     if (Debug.dkconfig_internal_check) {
       for (PptSlice slice : views_iterable()) {
@@ -1139,6 +1430,29 @@ public class PptTopLevel extends Ppt {
     return weakened_invs;
   }
 
+  /**
+   * Updates the convergence state of this ppt after a sample has been processed.
+   *
+   * @param quiet true if the sample changed nothing at this ppt
+   * @param count the number of times the sample occurred
+   */
+  private void update_convergence(boolean quiet, int count) {
+    if (!quiet) {
+      if (converged) {
+        debugConverge.fine(name() + " no longer converged after " + num_samples() + " samples");
+      }
+      quiet_samples = 0;
+      converged = false;
+    } else if (!converged) {
+      quiet_samples += count;
+      if (quiet_samples >= dkconfig_converge_samples) {
+        debugConverge.fine(name() + " converged after " + num_samples() + " samples");
+        converged = true;
+        samples_since_processed = 0;
+      }
+    }
+  }
+
   /**
    * Adds a sample to each invariant in the list. Returns the list of weakened invariants. This
    * should only be called when the sample has already been added to the slice containing each
@@ -2136,41 +2450,68 @@ public class PptTopLevel extends Ppt {
       Global.debugInfer.fine("Trying ternary slices for " + this.name());
     }
 
-    List<PptSlice> ternary_views = new ArrayList<PptSlice>();
-    for (int i1 = 0; i1 < var_infos.length; i1++) {
-      VarInfo var1 = var_infos[i1];
-      if (!is_var_ok_ternary(var1)) continue;
+    // A ternary slice needs three pairwise compatible variables, and with
+    // comparability information most pairs are not compatible.  So find the
+    // compatible pairs first, and consider only the triples whose pairs are
+    // all compatible, rather than checking every triple.  compatible[i] holds
+    // the j >= i for which ternary_vars[i].compatible(ternary_vars[j]).
+    List<VarInfo> ternary_vars = new ArrayList<VarInfo>(var_infos.length);
+    for (VarInfo vi : var_infos) {
+      if (is_var_ok_ternary(vi)) ternary_vars.add(vi);
+    }
+    int num_ternary_vars = ternary_vars.size();
+    BitSet[] compatible = new BitSet[num_ternary_vars];
+    for (int i = 0; i < num_ternary_vars; i++) {
+      compatible[i] = new BitSet(num_ternary_vars);
+      VarInfo vi = ternary_vars.get(i);
+      for (int j = i; j < num_ternary_vars; j++) {
+        if (vi.compatible(ternary_vars.get(j))) compatible[i].set(j);
+      }
+    }
+
+    List<VarInfo[]> ternary_candidates = new ArrayList<VarInfo[]>();
+    for (int i1 = 0; i1 < num_ternary_vars; i1++) {
+      VarInfo var1 = ternary_vars.get(i1);
 
       // Eventually, add back in this test as "if constant and no
       // comparability info exists" then continue.
       // if (var1.isStaticConstant()) continue;
 
-      for (int i2 = i1; i2 < var_infos.length; i2++) {
-        VarInfo var2 = var_infos[i2];
-
-        if (!is_var_ok_ternary(var2)) continue;
+      for (int i2 = compatible[i1].nextSetBit(i1);
+          i2 >= 0;
+          i2 = compatible[i1].nextSetBit(i2 + 1)) {
+        VarInfo var2 = ternary_vars.get(i2);
 
         // Eventually, add back in this test as "if constant and no
         // comparability info exists" then continue.
         // if (var2.isStaticConstant()) continue;
 
-        for (int i3 = i2; i3 < var_infos.length; i3++) {
-
-          VarInfo var3 = var_infos[i3];
+        for (int i3 = compatible[i2].nextSetBit(i2);
+            i3 >= 0;
+            i3 = compatible[i2].nextSetBit(i3 + 1)) {
+          if (!compatible[i1].get(i3)) continue;
 
-          if (!is_var_ok_ternary(var3)) continue;
+          VarInfo var3 = ternary_vars.get(i3);
 
           if (!is_slice_ok(var1, var2, var3)) continue;
 
-          PptSlice3 slice3 = new PptSlice3(this, var1, var2, var3);
-          slice3.instantiate_invariants();
-          if (Debug.logOn() || debug_on) {
-            Debug.log(debug, getClass(), slice3, "Created Ternary Slice");
-          }
-          ternary_views.add(slice3);
+          ternary_candidates.add(new VarInfo[] {var1, var2, var3});
         }
       }
     }
+
+    boolean[] keep = select_ternary_slices(ternary_candidates);
+    List<PptSlice> ternary_views = new ArrayList<PptSlice>();
+    for (int i = 0; i < keep.length; i++) {
+      if (!keep[i]) continue;
+      VarInfo[] vis = ternary_candidates.get(i);
+      PptSlice3 slice3 = new PptSlice3(this, vis[0], vis[1], vis[2]);
+      slice3.instantiate_invariants();
+      if (Debug.logOn() || debug_on) {
+        Debug.log(debug, getClass(), slice3, "Created Ternary Slice");
+      }
+      ternary_views.add(slice3);
+    }
     addViews(ternary_views);
 
     if (debug.isLoggable(Level.FINE)) {
@@ -2379,6 +2720,12 @@ public class PptTopLevel extends Ppt {
       }
     }
 
+    // Don't create a slice that was skipped because of dkconfig_max_ternary_slices
+    if ((skipped_triples != null) && skipped_triples.contains(ternary_key(v1, v2, v3))) {
+      if (dlog != null) dlog.log(debug, "Ternary slice not created, skipped by the budget");
+      return false;
+    }
+
     return true;
   }
 
@@ -3348,6 +3695,16 @@ public class PptTopLevel extends Ppt {
       if (!rel.child.in_merge) rel.child.mergeInvs();
     }
 
+    merge_from_children();
+  }
+
+  /**
+   * The body of {@link #mergeInvs}: merges the invariants of this ppt's children, which must
+   * already have been merged, to create the invariants here. Reads the children, and may modify
+   * them (see {@link #merge_invs_multiple_children} and {@code dkconfig_remove_merged_invs}).
+   */
+  void merge_from_children() {
+
     if (debugMerge.isLoggable(Level.FINE)) debugMerge.fine("Processing ppt " + name());
 
     @SuppressWarnings("nullness") // dependent: non-null if debugMerge.isLoggable(Level.FINE)
@@ -3374,12 +3731,13 @@ public class PptTopLevel extends Ppt {
     if (DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
       assert constants == null : this;
       constants = new DynamicConstants(this);
-      constants.merge();
+      // Merging constants may instantiate invariants; see ParallelMerge
+      synchronized (Intern.class) {
+        constants.merge();
+      }
     }
 
     // Merge the ModBitTracker.
-    // We'll reuse one dummy ValueTuple throughout, side-effecting its mods
-    // array.
     if (false) {
       System.out.printf("in ppt %s\n", name());
       System.out.printf("  num_tracevars = %d\n", num_tracevars);
@@ -3390,27 +3748,19 @@ public class PptTopLevel extends Ppt {
       }
     }
     int num_tracevars = mbtracker.num_vars();
-    // warning: shadows field of same name
-    /*@Nullable*/ Object[] vals = new Object[num_tracevars];
-    int[] mods = new int[num_tracevars];
-    ValueTuple vt = ValueTuple.makeUninterned(vals, mods);
     for (PptRelation rel : children) {
-      ModBitTracker child_mbtracker = rel.child.mbtracker;
-      int child_mbsize = child_mbtracker.num_samples();
-      // System.out.println("mergeInvs child #" + children.indexOf(rel) + "=" + rel.child.name() + " has size " + child_mbsize + " for " + name());
-      for (int sampno = 0; sampno < child_mbsize; sampno++) {
-        Arrays.fill(mods, ValueTuple.MISSING_FLOW);
-        for (int j = 0; j < var_infos.length; j++) {
-          VarInfo parent_vi = var_infos[j];
-          VarInfo child_vi = rel.childVar(parent_vi);
-          if ((child_vi != null) && (child_vi.value_index != -1)) {
-            if (child_mbtracker.get(child_vi.value_index, sampno)) {
-              mods[parent_vi.value_index] = ValueTuple.MODIFIED;
-            }
-          }
+      // For each tracked variable here, the index of the child variable
+      // whose modbits it takes, or -1 if it is missing in the child.
+      int[] child_vars = new int[num_tracevars];
+      Arrays.fill(child_vars, -1);
+      for (int j = 0; j < var_infos.length; j++) {
+        VarInfo parent_vi = var_infos[j];
+        VarInfo child_vi = rel.childVar(parent_vi);
+        if ((child_vi != null) && (child_vi.value_index != -1) && (parent_vi.value_index != -1)) {
+          child_vars[parent_vi.value_index] = child_vi.value_index;
         }
-        mbtracker.add(vt, 1);
       }
+      mbtracker.add_all(rel.child.mbtracker, child_vars);
     }
 
     // Merge the ValueSets.
@@ -3607,11 +3957,14 @@ public class PptTopLevel extends Ppt {
     // need to created the suppressed invariants once.
     Map<PptTopLevel, List<Invariant>> suppressed_invs =
         new LinkedHashMap<PptTopLevel, List<Invariant>>();
-    for (PptRelation rel : children) {
-      PptTopLevel child = rel.child;
-      if (child.num_samples() == 0) continue;
-      if (suppressed_invs.get(child) != null) continue;
-      suppressed_invs.put(child, NIS.create_suppressed_invs(child));
+    // Suppressions are shared with other program points; see ParallelMerge.
+    synchronized (Intern.class) {
+      for (PptRelation rel : children) {
+        PptTopLevel child = rel.child;
+        if (child.num_samples() == 0) continue;
+        if (suppressed_invs.get(child) != null) continue;
+        suppressed_invs.put(child, NIS.create_suppressed_invs(child));
+      }
     }
 
     // Create unary views and related invariants
@@ -3667,7 +4020,9 @@ public class PptTopLevel extends Ppt {
     }
 
     // Remove any merged invariants that are suppressed
-    NIS.remove_suppressed_invs(this);
+    synchronized (Intern.class) {
+      NIS.remove_suppressed_invs(this);
+    }
 
     // Remove the NI suppressed invariants in the children that we
     // previously created
@@ -0,0 +1,298 @@
+package daikon;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A LineNumberReader whose input is read on a separate thread. The background thread reads (and,
+ * for compressed files, decompresses) the underlying stream and splits it into lines, which it
+ * hands over in chunks through a bounded queue. The thread that calls {@link #readLine} therefore
+ * spends its time parsing records and performing inference rather than waiting for I/O.
+ *
+ * <p>Lines are handed over without their terminators, so characters read with {@link #read} see
+ * each line terminated by a single {@code '\n'}. As with BufferedReader, at most one mark is active
+ * at a time; the read-ahead limit passed to {@link #mark} is ignored, because marked lines are
+ * retained until {@link #reset} or the next mark.
+ *
+ * @see FileIO#dkconfig_pipelined_read
+ */
+public class ReadAheadLineReader extends LineNumberReader {
+
+  /** Number of lines handed from the reading thread to the consumer at a time. */
+  private static final int CHUNK_LINES = 1024;
+
+  /** A chunk with no lines indicates the end of the input (or an error). */
+  private static final String[] END = new String[0];
+
+  /** Chunks of lines read ahead by the reading thread. */
+  private final BlockingQueue<String[]> chunks;
+
+  /** The chunk currently being consumed. */
+  private String[] chunk = new String[0];
+
+  /** Index in chunk of the next line to return. */
+  private int chunk_pos = 0;
+
+  /** True once the END chunk has been taken from the queue. */
+  private boolean at_end = false;
+
+  /**
+   * The line being read a character at a time by {@link #read}, or null. Its terminator has not
+   * been read yet, so it is not yet counted in linenum.
+   */
+  private /*@Nullable*/ String partial = null;
+
+  /** Index in partial of the next character to return; partial.length() means the terminator. */
+  private int partial_pos = 0;
+
+  /** Lines that were read after a mark and then pushed back by reset. */
+  private final ArrayDeque<String> pushback = new ArrayDeque<String>();
+
+  /** Lines returned since the last mark, or null if there is no active mark. */
+  private /*@Nullable*/ ArrayList<String> marked = null;
+
+  /** Line number at the time of the last mark. */
+  private int marked_linenum = 0;
+
+  /** Number of lines returned by readLine. */
+  private int linenum = 0;
+
+  /** The reading thread; it fills chunks. */
+  private final Thread reading_thread;
+
+  /** Set by the reading thread if reading the underlying stream fails. */
+  private volatile /*@Nullable*/ Throwable failure = null;
+
+  /**
+   * Starts reading the given stream on a new thread.
+   *
+   * @param source the stream to read; it is closed when this reader is closed
+   * @param queue_size maximum number of chunks of lines that are read ahead
+   */
+  public ReadAheadLineReader(final BufferedReader source, int queue_size) {
+    super(source);
+    chunks = new ArrayBlockingQueue<String[]>(Math.max(queue_size, 1));
+    reading_thread =
+        new Thread("read-ahead") {
+          public void run() {
+            read_chunks(source);
+          }
+        };
+    reading_thread.setDaemon(true);
+    reading_thread.start();
+  }
+
+  /** The body of the reading thread. */
+  private void read_chunks(BufferedReader source) {
+    boolean closed = false;
+    try {
+      while (true) {
+        String[] lines = new String[CHUNK_LINES];
+        int count = 0;
+        String line;
+        while (count < CHUNK_LINES && (line = source.readLine()) != null) {
+          lines[count++] = line;
+        }
+        if (count > 0) {
+          chunks.put((count == CHUNK_LINES) ? lines : Arrays.copyOf(lines, count));
+        }
+        if (count < CHUNK_LINES) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      // The consumer closed the reader; stop reading.
+      closed = true;
+    } catch (Throwable e) {
+      failure = e;
+    } finally {
+      // Whatever happened, let the consumer know that no more lines are
+      // coming, or it would wait for them forever.
+      if (!closed) {
+        try {
+          chunks.put(END);
+        } catch (InterruptedException e) {
+          // The consumer closed the reader.
+        }
+      }
+    }
+  }
+
+  @Override
+  public /*@Nullable*/ String readLine() throws IOException {
+    String line;
+    if (partial != null) {
+      // The rest of a line that read() has started; it is already in marked
+      line = partial.substring(partial_pos);
+      partial = null;
+    } else {
+      line = next_line();
+      if (line == null) {
+        return null;
+      }
+      if (marked != null) {
+        marked.add(line);
+      }
+    }
+    linenum++;
+    return line;
+  }
+
+  /**
+   * Returns the next line, from the pushed-back lines or from the reading thread, or null at the
+   * end of the input. Does not count the line or record it for a mark.
+   */
+  private /*@Nullable*/ String next_line() throws IOException {
+    if (!pushback.isEmpty()) {
+      return pushback.removeFirst();
+    }
+    if (chunk_pos == chunk.length) {
+      if (at_end || !next_chunk()) {
+        return null;
+      }
+    }
+    return chunk[chunk_pos++];
+  }
+
+  /**
+   * Makes the next chunk from the reading thread current. Returns false at the end of the input.
+   */
+  private boolean next_chunk() throws IOException {
+    String[] next;
+    try {
+      next = chunks.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("interrupted while reading ahead");
+    }
+    if (next == END) {
+      at_end = true;
+      Throwable e = failure;
+      if (e instanceof IOException) {
+        throw (IOException) e;
+      } else if (e != null) {
+        throw new Error("Error in the read-ahead thread", e);
+      }
+      return false;
+    }
+    chunk = next;
+    chunk_pos = 0;
+    return true;
+  }
+
+  @Override
+  public void mark(int readAheadLimit) {
+    // Push back the unread part of a partially read line, so that it is
+    // recorded as a whole line once it is read again.
+    if (partial != null) {
+      pushback.addFirst(partial.substring(partial_pos));
+      partial = null;
+    }
+    marked = new ArrayList<String>();
+    marked_linenum = linenum;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    if (marked == null) {
+      throw new IOException("Stream not marked");
+    }
+    for (int i = marked.size() - 1; i >= 0; i--) {
+      pushback.addFirst(marked.get(i));
+    }
+    marked = null;
+    partial = null;
+    linenum = marked_linenum;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public int getLineNumber() {
+    return linenum;
+  }
+
+  @Override
+  public void setLineNumber(int lineNumber) {
+    linenum = lineNumber;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (partial == null) {
+      String line = next_line();
+      if (line == null) {
+        return -1;
+      }
+      if (marked != null) {
+        marked.add(line);
+      }
+      partial = line;
+      partial_pos = 0;
+    }
+    if (partial_pos < partial.length()) {
+      return partial.charAt(partial_pos++);
+    }
+    partial = null;
+    linenum++;
+    return '\n';
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || off + len > cbuf.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    int n = 0;
+    while (n < len) {
+      // Don't wait for more input once some characters have been read
+      if (n > 0 && !ready()) {
+        break;
+      }
+      int c = read();
+      if (c < 0) {
+        break;
+      }
+      cbuf[off + n++] = (char) c;
+    }
+    return (n == 0 && len > 0) ? -1 : n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n < 0) {
+      throw new IllegalArgumentException("skip value is negative");
+    }
+    long skipped = 0;
+    while (skipped < n && read() >= 0) {
+      skipped++;
+    }
+    return skipped;
+  }
+
+  /** Returns true if a character can be read without waiting for the reading thread. */
+  @Override
+  public boolean ready() throws IOException {
+    return partial != null
+        || !pushback.isEmpty()
+        || chunk_pos < chunk.length
+        || (!at_end && !chunks.isEmpty());
+  }
+
+  /** Stops the reading thread and closes the underlying stream. */
+  @Override
+  public void close() throws IOException {
+    // Don't wait for the thread: it may be blocked reading the underlying
+    // stream, and closing the stream will end that read.
+    reading_thread.interrupt();
+    super.close();
+  }
+}
@@ -0,0 +1,379 @@
+package daikon;
+
+import gnu.getopt.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Runs Daikon over many {@code .dtrace} files using several processors. The trace files are
+ * partitioned into shards of roughly equal total size. Daikon is run on each shard, in a separate
+ * JVM, producing one serialized invariant file per shard; several shards are processed at once.
+ * The shard invariant files are then combined by {@link MergeInvariants}, which attaches each
+ * shard's leaf ppts beneath the corresponding merged ppt and uses the normal hierarchy merging code
+ * to compute the invariants.
+ *
+ * <p>Each shard is run in its own JVM, rather than on a thread, because much of Daikon's state
+ * (the invariant prototypes, the suppression tables, the trace-reading state, and interned values)
+ * is static.
+ *
+ * <p>The {@code .decls} and {@code .spinfo} files given on the command line are passed to every
+ * shard. As for {@link MergeInvariants}, splitter info files require exactly one {@code .decls}
+ * file.
+ */
+public final class ShardedDaikon {
+  private ShardedDaikon() {
+    throw new Error("do not instantiate");
+  }
+
+  public static final Logger debugProgress = Logger.getLogger("daikon.ShardedDaikon.progress");
+
+  private static final String jobs_SWITCH = "jobs";
+  private static final String shards_SWITCH = "shards";
+  private static final String daikon_arg_SWITCH = "daikon_arg";
+  private static final String jvm_arg_SWITCH = "jvm_arg";
+  private static final String keep_shards_SWITCH = "keep_shards";
+
+  private static String usage =
+      UtilMDE.joinLines(
+          "Usage: java daikon.ShardedDaikon [OPTION]... FILE...",
+          "  -h, --" + Daikon.help_SWITCH,
+          "      Display this usage message",
+          "  -j, --" + jobs_SWITCH + " N",
+          "      Run at most N Daikon processes at once (default: number of processors)",
+          "  --" + shards_SWITCH + " N",
+          "      Partition the dtrace files into N shards (default: the number of jobs)",
+          "  --" + daikon_arg_SWITCH + " ARG",
+          "      Pass ARG to Daikon when processing each shard; may be repeated",
+          "  --" + jvm_arg_SWITCH + " ARG",
+          "      Pass ARG to the JVM that processes each shard, e.g. -Xmx2g; may be repeated",
+          "  --" + keep_shards_SWITCH,
+          "      Don't delete the directory containing each shard's .inv file and output",
+          "  --" + Daikon.config_option_SWITCH,
+          "      Specify a configuration option for each shard and for the merge",
+          "  -o ",
+          "      Specify an output inv file.  If not specified, the results are printed");
+
+  public static void main(final String[] args) {
+    try {
+      mainHelper(args);
+    } catch (Daikon.TerminationMessage e) {
+      Daikon.handleTerminationMessage(e);
+    }
+    // Any exception other than Daikon.TerminationMessage gets propagated.
+    // This simplifies debugging by showing the stack trace.
+  }
+
+  /**
+   * This does the work of main, but it never calls System.exit, so it is appropriate to be called
+   * progrmmatically. Termination of the program with a message to the user is indicated by throwing
+   * Daikon.TerminationMessage.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   * @see #main(String[])
+   * @see daikon.Daikon.TerminationMessage
+   */
+  public static void mainHelper(String[] args) {
+
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+
+    LongOpt[] longopts =
+        new LongOpt[] {
+          new LongOpt(Daikon.help_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(jobs_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 'j'),
+          new LongOpt(shards_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(daikon_arg_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(jvm_arg_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(keep_shards_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(Daikon.config_option_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+        };
+
+    int jobs = Runtime.getRuntime().availableProcessors();
+    int shards = -1;
+    boolean keep_shards = false;
+    /*@Nullable*/ String output_inv_filename = null;
+    List<String> daikon_args = new ArrayList<String>();
+    List<String> jvm_args = new ArrayList<String>();
+    List<String> merge_args = new ArrayList<String>();
+
+    Getopt g = new Getopt("daikon.ShardedDaikon", args, "hj:o:", longopts);
+    int c;
+    while ((c = g.getopt()) != -1) {
+      switch (c) {
+
+          // long option
+        case 0:
+          String option_name = longopts[g.getLongind()].getName();
+          if (Daikon.help_SWITCH.equals(option_name)) {
+            System.out.println(usage);
+            throw new Daikon.TerminationMessage();
+          } else if (shards_SWITCH.equals(option_name)) {
+            shards = parse_positive(shards_SWITCH, Daikon.getOptarg(g));
+          } else if (daikon_arg_SWITCH.equals(option_name)) {
+            daikon_args.add(Daikon.getOptarg(g));
+          } else if (jvm_arg_SWITCH.equals(option_name)) {
+            jvm_args.add(Daikon.getOptarg(g));
+          } else if (keep_shards_SWITCH.equals(option_name)) {
+            keep_shards = true;
+          } else if (Daikon.config_option_SWITCH.equals(option_name)) {
+            String item = Daikon.getOptarg(g);
+            daikon_args.add("--" + Daikon.config_option_SWITCH);
+            daikon_args.add(item);
+            merge_args.add("--" + Daikon.config_option_SWITCH);
+            merge_args.add(item);
+          } else {
+            throw new Daikon.TerminationMessage("Unknown long option received: " + option_name);
+          }
+          break;
+
+        case 'h':
+          System.out.println(usage);
+          throw new Daikon.TerminationMessage();
+
+        case 'j':
+          jobs = parse_positive(jobs_SWITCH, Daikon.getOptarg(g));
+          break;
+
+        case 'o':
+          if (output_inv_filename != null) {
+            throw new Daikon.TerminationMessage(
+                "multiple serialization output files supplied on command line: "
+                    + output_inv_filename
+                    + " "
+                    + Daikon.getOptarg(g));
+          }
+          output_inv_filename = Daikon.getOptarg(g);
+          break;
+
+        case '?':
+          break; // getopt() already printed an error
+
+        default:
+          System.out.println("getopt() returned " + c);
+          break;
+      }
+    }
+
+    List<File> dtrace_files = new ArrayList<File>();
+    List<String> decl_files = new ArrayList<String>();
+    List<String> spinfo_files = new ArrayList<String>();
+
+    // Get each file specified
+    for (int i = g.getOptind(); i < args.length; i++) {
+      File file = new File(args[i]);
+      if (!file.exists()) {
+        throw new Daikon.TerminationMessage("File " + file + " not found.");
+      }
+      if (file.toString().indexOf(".decls") != -1) {
+        decl_files.add(file.getAbsolutePath());
+      } else if (file.toString().indexOf(".spinfo") != -1) {
+        spinfo_files.add(file.getAbsolutePath());
+      } else if (file.toString().indexOf(".dtrace") != -1) {
+        dtrace_files.add(file.getAbsoluteFile());
+      } else {
+        throw new Daikon.TerminationMessage("Unrecognized file type: " + file);
+      }
+    }
+
+    if (shards == -1) {
+      shards = jobs;
+    }
+    shards = Math.min(shards, dtrace_files.size());
+    if (shards < 2) {
+      throw new Daikon.TerminationMessage(
+          "Must specify at least two dtrace files and two shards; only specified "
+              + UtilMDE.nplural(dtrace_files.size(), "dtrace file")
+              + ".  Run daikon.Daikon instead.");
+    }
+    if (!spinfo_files.isEmpty() && decl_files.size() != 1) {
+      throw new Daikon.TerminationMessage(
+          ".spinfo files may only be specified along with exactly one .decls file");
+    }
+
+    List<List<File>> partition = partition(dtrace_files, shards);
+
+    File shard_dir;
+    try {
+      shard_dir = java.nio.file.Files.createTempDirectory("daikon-shards").toFile();
+    } catch (IOException e) {
+      throw new Error("Unable to create a directory for the shard invariant files", e);
+    }
+
+    // The shard directory is removed even if a shard or the merge fails
+    try {
+      // Infer the invariants for each shard
+      List<String> shard_invs =
+          run_shards(partition, shard_dir, jobs, jvm_args, daikon_args, decl_files, spinfo_files);
+
+      // Merge the shards.  MergeInvariants reads the leaves of each shard
+      // and recomputes the upper ppts from them.
+      debugProgress.fine("Merging " + UtilMDE.nplural(shard_invs.size(), "shard"));
+      if (output_inv_filename != null) {
+        merge_args.add("-o");
+        merge_args.add(output_inv_filename);
+      }
+      merge_args.addAll(shard_invs);
+      if (decl_files.size() == 1) {
+        merge_args.add(decl_files.get(0));
+      }
+      merge_args.addAll(spinfo_files);
+      try {
+        MergeInvariants.mainHelper(merge_args.toArray(new String[merge_args.size()]));
+      } catch (IOException e) {
+        throw new Error(e);
+      } catch (ClassNotFoundException e) {
+        throw new Error(e);
+      }
+    } finally {
+      if (!keep_shards) {
+        UtilMDE.deleteDir(shard_dir);
+      }
+    }
+  }
+
+  /** Parses the argument of the given switch, which must be a positive integer. */
+  private static int parse_positive(String switch_name, String arg) {
+    int result;
+    try {
+      result = Integer.parseInt(arg);
+    } catch (NumberFormatException e) {
+      result = 0;
+    }
+    if (result < 1) {
+      throw new Daikon.TerminationMessage(
+          "Argument to --" + switch_name + " must be a positive integer: " + arg);
+    }
+    return result;
+  }
+
+  /**
+   * Divides the files into the given number of non-empty shards whose total sizes are as nearly
+   * equal as is easy: each file, largest first, goes to the shard that is currently smallest.
+   */
+  static List<List<File>> partition(List<File> files, int num_shards) {
+    List<File> by_size = new ArrayList<File>(files);
+    Collections.sort(
+        by_size,
+        new Comparator<File>() {
+          public int compare(File f1, File f2) {
+            return Long.compare(f2.length(), f1.length());
+          }
+        });
+
+    List<List<File>> result = new ArrayList<List<File>>();
+    long[] sizes = new long[num_shards];
+    for (int i = 0; i < num_shards; i++) {
+      result.add(new ArrayList<File>());
+    }
+    for (File file : by_size) {
+      int smallest = 0;
+      for (int i = 1; i < num_shards; i++) {
+        // Prefer an empty shard, so that no shard is left without files
+        if (result.get(i).isEmpty() != result.get(smallest).isEmpty()) {
+          if (result.get(i).isEmpty()) {
+            smallest = i;
+          }
+        } else if (sizes[i] < sizes[smallest]) {
+          smallest = i;
+        }
+      }
+      result.get(smallest).add(file);
+      sizes[smallest] += file.length();
+    }
+    return result;
+  }
+
+  /**
+   * Runs Daikon on each shard, at most jobs at a time, and returns the names of the resulting
+   * invariant files. Each shard's output is written to a log file in shard_dir, which is printed if
+   * the shard fails.
+   */
+  private static List<String> run_shards(
+      List<List<File>> partition,
+      File shard_dir,
+      int jobs,
+      List<String> jvm_args,
+      List<String> daikon_args,
+      List<String> decl_files,
+      List<String> spinfo_files) {
+
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    String classpath = System.getProperty("java.class.path");
+
+    List<String> shard_invs = new ArrayList<String>();
+    List<File> shard_logs = new ArrayList<File>();
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+    ExecutorService executor = Executors.newFixedThreadPool(jobs);
+    try {
+      for (int i = 0; i < partition.size(); i++) {
+        File inv_file = new File(shard_dir, "shard" + i + ".inv.gz");
+        File log_file = new File(shard_dir, "shard" + i + ".log");
+        shard_invs.add(inv_file.getPath());
+        shard_logs.add(log_file);
+
+        final List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.addAll(jvm_args);
+        command.add("-cp");
+        command.add(classpath);
+        command.add("daikon.Daikon");
+        command.add("--" + Daikon.no_text_output_SWITCH);
+        command.add("-o");
+        command.add(inv_file.getPath());
+        command.addAll(daikon_args);
+        command.addAll(decl_files);
+        command.addAll(spinfo_files);
+        for (File dtrace : partition.get(i)) {
+          command.add(dtrace.getPath());
+        }
+
+        final ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(log_file);
+        final int shard = i;
+        results.add(
+            executor.submit(
+                new Callable<Integer>() {
+                  public Integer call() throws IOException, InterruptedException {
+                    debugProgress.fine("Starting shard " + shard + ": " + command);
+                    int status = pb.start().waitFor();
+                    debugProgress.fine("Finished shard " + shard + " with status " + status);
+                    return status;
+                  }
+                }));
+      }
+
+      for (int i = 0; i < results.size(); i++) {
+        int status;
+        try {
+          status = results.get(i).get();
+        } catch (ExecutionException e) {
+          throw new Error("Unable to run Daikon on shard " + i, e.getCause());
+        } catch (InterruptedException e) {
+          throw new Error(e);
+        }
+        if (status != 0) {
+          String log;
+          try {
+            log = UtilMDE.readFile(shard_logs.get(i));
+          } catch (IOException e) {
+            log = "(unable to read " + shard_logs.get(i) + ")";
+          }
+          throw new Daikon.TerminationMessage(
+              String.format(
+                  "Daikon failed with status %d on shard %d (%s):%n%s",
+                  status, i, partition.get(i), log));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return shard_invs;
+  }
+}
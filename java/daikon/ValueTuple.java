@@ -38,6 +38,17 @@ public final class ValueTuple implements Cloneable {
    */
   public int /*@Interned*/ [] mods;
 
+  // The values of the integral and floating-point scalar slots of vals,
+  // unboxed.  They are filled in by unbox_scalars, once for each sample
+  // that is read from a trace, before the sample is given to the slices
+  // of its program point.  Slots that do not hold a value of an array's
+  // type are 0.  An array is null if unbox_scalars has not been called or
+  // if no slot holds a value of its type; getLong and getDouble then unbox
+  // the value from vals.  Since this is computed from vals, it is not part
+  // of equality.
+  private long /*@Nullable*/ [] longs = null;
+  private double /*@Nullable*/ [] doubles = null;
+
   // Right now there are only three meaningful values for a mod:
   /** Not modified. */
   public static final int UNMODIFIED = 0;
@@ -286,6 +297,62 @@ public final class ValueTuple implements Cloneable {
     return vi.getValueOrNull(this);
   }
 
+  /**
+   * Stores the values of the integral and floating-point scalar slots of vals unboxed, in a long[]
+   * and a double[] alongside vals, for {@link #getLong} and {@link #getDouble}. Each array is
+   * allocated only if some slot holds a value of its type. Must be called only once vals holds
+   * every value of the sample, including those of derived variables, and vals must not change
+   * afterward.
+   */
+  public void unbox_scalars() {
+    long[] new_longs = null;
+    double[] new_doubles = null;
+    for (int i = 0; i < vals.length; i++) {
+      Object val = vals[i];
+      if (val instanceof Long) {
+        if (new_longs == null) {
+          new_longs = new long[vals.length];
+        }
+        new_longs[i] = ((Long) val).longValue();
+      } else if (val instanceof Double) {
+        if (new_doubles == null) {
+          new_doubles = new double[vals.length];
+        }
+        new_doubles[i] = ((Double) val).doubleValue();
+      }
+    }
+    longs = new_longs;
+    doubles = new_doubles;
+  }
+
+  /**
+   * Get the value of the integral scalar variable vi in this ValueTuple, which should not be
+   * missing. Equivalent to {@code ((Long) getValue(vi)).longValue()}, but reads the value that
+   * {@link #unbox_scalars} stored, if it was called.
+   */
+  public long getLong(VarInfo vi) {
+    long[] column = longs;
+    if ((column == null) || vi.is_static_constant) {
+      return ((Long) getValue(vi)).longValue();
+    }
+    assert vals[vi.value_index] instanceof Long : vi;
+    return column[vi.value_index];
+  }
+
+  /**
+   * Get the value of the floating-point scalar variable vi in this ValueTuple, which should not be
+   * missing. Equivalent to {@code ((Double) getValue(vi)).doubleValue()}, but reads the value that
+   * {@link #unbox_scalars} stored, if it was called.
+   */
+  public double getDouble(VarInfo vi) {
+    double[] column = doubles;
+    if ((column == null) || vi.is_static_constant) {
+      return ((Double) getValue(vi)).doubleValue();
+    }
+    assert vals[vi.value_index] instanceof Double : vi;
+    return column[vi.value_index];
+  }
+
   /**
    * Get the value at the val_index, which should not have a missing value. Note: For clients,
    * getValue(VarInfo) is preferred to getValue(int).
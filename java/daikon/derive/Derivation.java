@@ -67,6 +67,64 @@ public abstract class Derivation implements Serializable, Cloneable {
   // MISSING_NONSENSICAL, not MISSING_FLOW.
   public abstract ValueAndModified computeValueAndModified(ValueTuple full_vt);
 
+  /**
+   * Like {@link #computeValueAndModified}, but if the values and modbits of the bases are the same
+   * (==) as when this method was last called, returns the result of that call instead of deriving
+   * the value again. A derived value depends only on the values and modbits of its bases, so the
+   * result is the same.
+   *
+   * @param full_vt the set of values in a program point that will be used to derive the value
+   * @return a pair of: the derived value and whether the variable counts as modified
+   */
+  public ValueAndModified computeValueAndModifiedReusing(ValueTuple full_vt) {
+    LastValue last = last_value;
+    if (last != null && last.matches(this, full_vt)) {
+      return last.vm;
+    }
+    ValueAndModified vm = computeValueAndModified(full_vt);
+    last_value = new LastValue(getBases(), full_vt, vm);
+    return vm;
+  }
+
+  /**
+   * The result of the last call to computeValueAndModifiedReusing, or null. A clone shares it with
+   * the original, but holds different bases if it was made by switchVars, so LastValue records the
+   * bases as well and is never modified.
+   */
+  private transient /*@Nullable*/ LastValue last_value = null;
+
+  /** A derived value, with the bases and the base values and modbits it was derived from. */
+  private static final class LastValue {
+    final VarInfo[] bases;
+    final /*@Nullable*/ Object[] base_vals;
+    final int[] base_mods;
+    final ValueAndModified vm;
+
+    LastValue(VarInfo[] bases, ValueTuple vt, ValueAndModified vm) {
+      this.bases = bases;
+      this.base_vals = new Object[bases.length];
+      this.base_mods = new int[bases.length];
+      for (int i = 0; i < bases.length; i++) {
+        base_vals[i] = bases[i].getValueOrNull(vt);
+        base_mods[i] = bases[i].getModified(vt);
+      }
+      this.vm = vm;
+    }
+
+    /** Returns true if d has the same bases, with the same values and modbits in vt. */
+    boolean matches(Derivation d, ValueTuple vt) {
+      for (int i = 0; i < bases.length; i++) {
+        VarInfo base = d.getBase(i);
+        if (base != bases[i]
+            || base.getValueOrNull(vt) != base_vals[i]
+            || base.getModified(vt) != base_mods[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   /**
    * Get the VarInfo that this would represent. However, the VarInfo can't be used to obtain values
    * without further modification -- use computeValueAndModified() for this.
@@ -72,6 +72,15 @@ public final /*(at)Interned*/ class Equality extends Invariant {
    */
   private TreeSet<VarInfo> vars;
 
+  /**
+   * The variables other than the leader, and the indices of their values in a ValueTuple, for the
+   * check in {@link #add}; null if they must be recomputed because the set or its leader changed.
+   * othersIndex is null if some variable is a static constant, which has no index.
+   */
+  private transient VarInfo /*@Nullable*/ [] othersCache = null;
+
+  private transient int /*@Nullable*/ [] othersIndex = null;
+
   /** Returns the number of variables in the set. */
   /*@Pure*/
   public int size(/*>>>@GuardSatisfied Equality this*/) {
@@ -367,10 +376,19 @@ public final /*(at)Interned*/ class Equality extends Invariant {
       numSamples += count;
     }
 
-    List<VarInfo> result = new LinkedList<VarInfo>();
     if (debug.isLoggable(Level.FINE)) {
       debug.fine("Doing add at " + this.ppt.parent.name() + " for " + this);
     }
+
+    // Most samples split no variable from the set.  Check that first,
+    // comparing the interned values directly.
+    if (!leaderOutOfBounds
+        && !((leaderValue instanceof Double) && ((Double) leaderValue).isNaN())
+        && all_others_equal(vt, leader, leaderValue, leaderMod)) {
+      return Collections.emptyList();
+    }
+
+    List<VarInfo> result = new LinkedList<VarInfo>();
     for (Iterator<VarInfo> i = vars.iterator(); i.hasNext(); ) {
       VarInfo vi = i.next();
       if (vi == leader) continue;
@@ -418,11 +436,62 @@ public final /*(at)Interned*/ class Equality extends Invariant {
 
       result.add(vi);
       i.remove();
+      othersCache = null;
     }
 
     return result;
   }
 
+  /**
+   * Returns true if each variable other than the leader has the given value and modbit in vt, and
+   * is not missing out of bounds.
+   */
+  private boolean all_others_equal(
+      ValueTuple vt, VarInfo leader, /*@Nullable*/ Object leaderValue, int leaderMod) {
+    VarInfo[] others = othersCache;
+    if (others == null) {
+      others = new VarInfo[vars.size() - 1];
+      int[] indices = new int[others.length];
+      boolean has_static_constant = false;
+      int n = 0;
+      for (VarInfo vi : vars) {
+        if (vi == leader) continue;
+        others[n] = vi;
+        indices[n] = vi.value_index;
+        if (vi.is_static_constant) {
+          has_static_constant = true;
+        }
+        n++;
+      }
+      othersCache = others;
+      othersIndex = has_static_constant ? null : indices;
+    }
+
+    int[] indices = othersIndex;
+    if (indices != null) {
+      /*@Nullable*/ Object[] vals = vt.vals;
+      int[] mods = vt.mods;
+      for (int k = 0; k < indices.length; k++) {
+        int index = indices[k];
+        if (vals[index] != leaderValue || mods[index] != leaderMod) {
+          return false;
+        }
+      }
+    } else {
+      for (VarInfo vi : others) {
+        if (vi.getValueOrNull(vt) != leaderValue || vi.getModified(vt) != leaderMod) {
+          return false;
+        }
+      }
+    }
+    for (VarInfo vi : others) {
+      if (vi.missingOutOfBounds()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   //  This method isn't going to be called, but it's declared abstract in Invariant.
   protected Invariant resurrect_done(int[] permutation) {
     throw new UnsupportedOperationException();
@@ -522,6 +591,7 @@ public final /*(at)Interned*/ class Equality extends Invariant {
     //                    leaderCache.complexity(), newLeader,
     //                    newLeader.complexity());
     leaderCache = newLeader;
+    othersCache = null;
   }
 
   public void repCheck() {
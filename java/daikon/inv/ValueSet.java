@@ -27,6 +27,11 @@ import plume.*;
  * </ul>
  *
  * These subclasses store a hashcode.
+ *
+ * <p>Once the set has exceeded its size limit, only its size (the limit plus one) is known, so the
+ * subclasses no longer hash the values they are given. The array subclasses also remember the last
+ * array they were given: values are interned, so if the same array is added again, its elements need
+ * not be examined.
  */
 public abstract class ValueSet extends LimitedSizeIntSet implements Serializable, Cloneable {
   // We are Serializable, so we specify a version to allow changes to
@@ -109,7 +114,9 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
       if (val > max_val) {
         max_val = val;
       }
-      add(UtilMDE.hash(val));
+      if (!repNulled()) {
+        add(UtilMDE.hash(val));
+      }
     }
 
     protected void add_stats(ValueSet other) {
@@ -161,7 +168,9 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
       if (Double.isNaN(val)) {
         can_be_NaN = true;
       }
-      add(UtilMDE.hash(val));
+      if (!repNulled()) {
+        add(UtilMDE.hash(val));
+      }
     }
 
     protected void add_stats(ValueSet other) {
@@ -210,6 +219,8 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
     int max_length = 0;
     int elem_cnt = 0;
     int multi_arr_cnt = 0; // number of arrays with 2 or more elements
+    /** The last array added, whose elements are already reflected in the statistics. */
+    private transient long /*@Nullable*/ [] last_val = null;
 
     public ValueSetScalarArray(int max_values) {
       super(max_values);
@@ -218,6 +229,12 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
     public void add(Object v1) {
       assert v1 != null;
       long[] val = (long[]) v1;
+      elem_cnt += val.length;
+      if (val.length > 1) multi_arr_cnt++;
+      if (val == last_val) {
+        return;
+      }
+      last_val = val;
       for (int i = 0; i < val.length; i++) {
         if (val[i] < min_val) {
           min_val = val[i];
@@ -226,10 +243,10 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
           max_val = val[i];
         }
       }
-      elem_cnt += val.length;
-      if (val.length > 1) multi_arr_cnt++;
       if (val.length > max_length) max_length = val.length;
-      add(UtilMDE.hash((long[]) v1));
+      if (!repNulled()) {
+        add(UtilMDE.hash(val));
+      }
     }
 
     protected void add_stats(ValueSet other) {
@@ -282,6 +299,8 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
     int max_length = 0;
     int elem_cnt = 0;
     int multi_arr_cnt = 0; // number of arrays with 2 or more elements
+    /** The last array added, whose elements are already reflected in the statistics. */
+    private transient double /*@Nullable*/ [] last_val = null;
 
     public ValueSetFloatArray(int max_values) {
       super(max_values);
@@ -290,6 +309,12 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
     public void add(Object v1) {
       assert v1 != null;
       double[] val = (double[]) v1;
+      elem_cnt += val.length;
+      if (val.length > 1) multi_arr_cnt++;
+      if (val == last_val) {
+        return;
+      }
+      last_val = val;
       for (int i = 0; i < val.length; i++) {
         if (val[i] < min_val) {
           min_val = val[i];
@@ -301,10 +326,10 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
           can_be_NaN = true;
         }
       }
-      elem_cnt += val.length;
-      if (val.length > 1) multi_arr_cnt++;
       if (val.length > max_length) max_length = val.length;
-      add(UtilMDE.hash(val));
+      if (!repNulled()) {
+        add(UtilMDE.hash(val));
+      }
     }
 
     protected void add_stats(ValueSet other) {
@@ -369,7 +394,9 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
 
     public void add(Object v1) {
       assert v1 != null;
-      add(UtilMDE.hash((String) v1));
+      if (!repNulled()) {
+        add(UtilMDE.hash((String) v1));
+      }
     }
 
     protected void add_stats(ValueSet other) {}
@@ -397,7 +424,9 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
       String[] val = (String[]) v1;
       elem_cnt += val.length;
       if (val.length > 1) multi_arr_cnt++;
-      add(UtilMDE.hash(val));
+      if (!repNulled()) {
+        add(UtilMDE.hash(val));
+      }
     }
 
     protected void add_stats(ValueSet other) {
@@ -156,7 +156,12 @@ public class NonModulus extends SingleScalar {
 
   // XXX have to deal with flowing this; maybe it should live at all ppts?
   public InvariantStatus add_modified(long value, int count) {
-    if (elements.add(Intern.internedLong(value))
+    // Samples may be added by several threads; see daikon.ParallelInference
+    Long interned;
+    synchronized (Intern.class) {
+      interned = Intern.internedLong(value);
+    }
+    if (elements.add(interned)
         && results_accurate
         && (!no_result_yet)
         && (MathMDE.mod_positive(value, modulus) == remainder)) results_accurate = false;
@@ -42,9 +42,13 @@ public abstract class SingleFloat extends UnaryInvariant {
   // Subclasses need not override this except in special cases;
   // just implement @link{add_modified(Object,int)}.
   public InvariantStatus add(/*@Interned*/ Object val, int mod_index, int count) {
+    return add(((Double) val).doubleValue(), mod_index, count);
+  }
+
+  /** Like {@link #add(Object,int,int)}, but for a value that is already unboxed. */
+  public InvariantStatus add(double value, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    double value = ((Double) val).doubleValue();
     if (mod_index == 0) {
       return add_unmodified(value, count);
     } else {
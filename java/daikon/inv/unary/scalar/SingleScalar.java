@@ -52,9 +52,13 @@ public abstract class SingleScalar extends UnaryInvariant {
   // Subclasses need not override this except in special cases;
   // just implement @link{add_modified(Object,int)}.
   public InvariantStatus add(/*@Interned*/ Object val, int mod_index, int count) {
+    return add(((Long) val).longValue(), mod_index, count);
+  }
+
+  /** Like {@link #add(Object,int,int)}, but for a value that is already unboxed. */
+  public InvariantStatus add(long value, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    long value = ((Long) val).longValue();
     if (mod_index == 0) {
       return add_unmodified(value, count);
     } else {
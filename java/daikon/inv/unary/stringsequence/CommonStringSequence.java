@@ -134,7 +134,10 @@ public class CommonStringSequence extends SingleStringSequence {
     if (a == null) {
       return InvariantStatus.FALSIFIED;
     } else if (intersect == null) {
-      intersect = Intern.intern(a);
+      // Samples may be added by several threads; see daikon.ParallelInference
+      synchronized (Intern.class) {
+        intersect = Intern.intern(a);
+      }
       return InvariantStatus.NO_CHANGE;
     } else {
       /*@Interned*/ String[] tmp = new /*@Interned*/ String[intersect.length];
@@ -148,7 +151,9 @@ public class CommonStringSequence extends SingleStringSequence {
       if (size == 0) {
         return InvariantStatus.FALSIFIED;
       }
-      intersect = Intern.intern(ArraysMDE.subarray(tmp, 0, size));
+      synchronized (Intern.class) {
+        intersect = Intern.intern(ArraysMDE.subarray(tmp, 0, size));
+      }
     }
     elts++;
     return InvariantStatus.NO_CHANGE;
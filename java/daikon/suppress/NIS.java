@@ -137,7 +137,9 @@ public class NIS {
   /**
    * List of invariants that are unsuppressed by the current sample. The {@link #falsified} and
    * {@link #process_falsified_invs} methods add created invariants to this list. This list is
-   * cleared by {@link #apply_samples}.
+   * cleared by {@link #apply_samples}. When samples are processed by several threads (see {@link
+   * daikon.FileIO#dkconfig_inference_threads}), it is used only while holding the monitor of {@code
+   * Intern.class}, like the rest of the suppression state.
    */
   public static List<Invariant> new_invs = new ArrayList<Invariant>();
 
@@ -145,7 +147,8 @@ public class NIS {
    * List of invariants that are unsuppressed and then falsified by the current sample. This list is
    * cleared at the beginning of apply_samples() and falsified invariants are added as the current
    * sample is applied to invariants in new_invs. The list is only used when the falsified method is
-   * used for processing suppressions.
+   * used for processing suppressions. Like {@link #new_invs}, it is used only while holding the
+   * monitor of {@code Intern.class}.
    */
   public static List<Invariant> newly_falsified = new ArrayList<Invariant>();
 
@@ -307,7 +310,7 @@ public class NIS {
     // Count the number of falsified invariants that are antecedents
     if (keep_stats) {
       watch.start();
-      if (PptTopLevel.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
+      if (inv.ppt.parent.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
         false_invs++;
       }
     }
@@ -482,16 +485,36 @@ public class NIS {
    * Creates any invariants that were previously suppressed, but are no longer suppressed. Must be
    * called after the sample has been processed and any invariants falsified by the sample are
    * marked as such, but before they have been removed.
+   *
+   * <p>Falsified invariants are looked for only in candidates, rather than among all of the
+   * invariants at ppt. candidates must include every invariant at ppt that is falsified; it may
+   * include other invariants, which are ignored. The invariants weakened by a sample, as collected
+   * by {@link PptTopLevel#add_bottom_up}, qualify. The cost of deciding whether there is anything
+   * to do is then proportional to the number of invariants the sample weakened, rather than to the
+   * number of invariants at ppt.
    */
   /*@RequiresNonNull({"suppressor_map", "suppressor_map_suppression_count", "all_suppressions", "NIS.suppressor_proto_invs"})*/
-  public static void process_falsified_invs(PptTopLevel ppt, ValueTuple vt) {
+  public static void process_falsified_invs(
+      PptTopLevel ppt, ValueTuple vt, Collection<Invariant> candidates) {
+    if (Debug.dkconfig_internal_check) {
+      int false_in_ppt = 0;
+      for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
+        if (i.next().is_false()) false_in_ppt++;
+      }
+      int false_in_candidates = 0;
+      for (Invariant inv : candidates) {
+        if (inv.is_false()) false_in_candidates++;
+      }
+      assert false_in_ppt == false_in_candidates
+          : "ppt " + ppt.name + " has falsified invariants that are not candidates";
+    }
 
     // if using the hybrid method, need to know the number of falsified suppressor
     // invariants before deciding which method to use
     if (NIS.hybrid_method) {
       int count = 0;
-      for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-        Invariant inv = i.next();
+      for (Invariant inv : candidates) {
+        if (!inv.is_false()) continue;
 
         if (NIS.dkconfig_skip_hashcode_type) {
 
@@ -506,19 +529,17 @@ public class NIS {
           if (hashFound) continue;
         }
 
-        if (inv.is_false()) {
-          false_cnts++;
+        false_cnts++;
 
-          if (suppressor_map.containsKey(inv.getClass())) {
+        if (suppressor_map.containsKey(inv.getClass())) {
 
-            // use the following count update when splitting the hybrid method by the
-            // number of total suppressions associated with the falsified invariants
-            @SuppressWarnings(
-                "nullness") // map:  same keys in suppressor_map and suppressor_map_suppression_count
-            int map_count = suppressor_map_suppression_count.get(inv.getClass());
-            count += map_count;
-            suppressions_processed_falsified += map_count;
-          }
+          // use the following count update when splitting the hybrid method by the
+          // number of total suppressions associated with the falsified invariants
+          @SuppressWarnings(
+              "nullness") // map:  same keys in suppressor_map and suppressor_map_suppression_count
+          int map_count = suppressor_map_suppression_count.get(inv.getClass());
+          count += map_count;
+          suppressions_processed_falsified += map_count;
         }
       }
 
@@ -546,11 +567,8 @@ public class NIS {
 
     // If there are no falsified invariants that are suppressors, there is nothing to do
     int false_cnt = 0;
-    int inv_cnt = 0;
-    for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-      Invariant inv = i.next();
+    for (Invariant inv : candidates) {
       if (inv.is_false() && suppressor_map.containsKey(inv.getClass())) false_cnt++;
-      inv_cnt++;
     }
 
     // System.out.printf ("Invariants for ppt %s: %d\n", ppt, inv_cnt);
@@ -1001,11 +1019,23 @@ public class NIS {
     /** Number of antecedents that are false */
     int false_cnt = 0;
 
+    /**
+     * Indices into antecedent_map, built on demand by {@link #get(Class,int,VarInfo)}: for each
+     * class, by_var[0] maps each variable to the antecedents of that class whose first variable it
+     * is, and by_var[1] does the same for the second variable. The lists are in the same order as
+     * the list for the class. Discarded whenever an antecedent is added.
+     */
+    private final List<Map<Class<? extends Invariant>, Map<VarInfo, List<Invariant>>>> by_var =
+        new ArrayList<Map<Class<? extends Invariant>, Map<VarInfo, List<Invariant>>>>(2);
+
     /** Create with specified comparability */
     public Antecedents(VarComparability comparability) {
 
       antecedent_map = new LinkedHashMap<Class<? extends Invariant>, List<Invariant>>();
       this.comparability = comparability;
+      for (int i = 0; i < 2; i++) {
+        by_var.add(new HashMap<Class<? extends Invariant>, Map<VarInfo, List<Invariant>>>());
+      }
     }
 
     /** Returns true if this contains antecedents that are always comparable. */
@@ -1036,6 +1066,10 @@ public class NIS {
 
       if (inv.is_false()) false_cnt++;
 
+      for (Map<Class<? extends Invariant>, Map<VarInfo, List<Invariant>>> index : by_var) {
+        index.remove(inv.getClass());
+      }
+
       // Add the invariant to the map for its class
       List<Invariant> antecedents = get(inv.getClass());
       if (antecedents == null) {
@@ -1069,6 +1103,39 @@ public class NIS {
       return antecedent_map.get(cls);
     }
 
+    /**
+     * Returns the antecedent invariants of the specified class whose variable at position (0 for
+     * the first variable, 1 for the second) is var, in the order in which {@link #get(Class)}
+     * returns them. This lets suppressions join antecedents on a shared variable without scanning
+     * every antecedent of the class.
+     */
+    public List<Invariant> get(Class<? extends Invariant> cls, int position, VarInfo var) {
+      Map<Class<? extends Invariant>, Map<VarInfo, List<Invariant>>> index = by_var.get(position);
+      Map<VarInfo, List<Invariant>> var_map = index.get(cls);
+      if (var_map == null) {
+        var_map = new IdentityHashMap<VarInfo, List<Invariant>>();
+        List<Invariant> all = antecedent_map.get(cls);
+        if (all != null) {
+          for (Invariant inv : all) {
+            if (inv.ppt.var_infos.length <= position) continue;
+            VarInfo v = inv.ppt.var_infos[position];
+            List<Invariant> invs = var_map.get(v);
+            if (invs == null) {
+              invs = new ArrayList<Invariant>();
+              var_map.put(v, invs);
+            }
+            invs.add(inv);
+          }
+        }
+        index.put(cls, var_map);
+      }
+      List<Invariant> result = var_map.get(var);
+      if (result == null) {
+        return Collections.emptyList();
+      }
+      return result;
+    }
+
     /** Returns a string representation of all of the antecedents by class. */
     /*@SideEffectFree*/
     public String toString(/*>>>@GuardSatisfied Antecedents this*/) {
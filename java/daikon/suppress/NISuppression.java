@@ -171,7 +171,7 @@ public class NISuppression {
     // Recursively check each combination of possible antecedents that
     // match our suppressors for suppressions
     VarInfo vis[] = new VarInfo[suppressee.var_count];
-    find_suppressed_invs(suppressed_invs, antecedents, vis, 0);
+    find_suppressed_invs(suppressed_invs, ants, antecedents, vis, 0);
 
     if (debug) System.out.println("  suppressed invariants: " + suppressed_invs);
   }
@@ -214,7 +214,7 @@ public class NISuppression {
     // watch.start();
     // int old_size = unsuppressed_invs.size();
     Invariant[] cinvs = new Invariant[antecedents.length];
-    find_unsuppressed_invs(unsuppressed_invs, antecedents, vis, 0, false, cinvs);
+    find_unsuppressed_invs(unsuppressed_invs, ants, antecedents, vis, 0, false, cinvs);
     // watch.stop();
     if (debug) System.out.println("  unsuppressed invariants: " + unsuppressed_invs);
   }
@@ -224,6 +224,7 @@ public class NISuppression {
    * are examined and each valid combination will yield an entry in suppressed_invs.
    *
    * @param suppressed_invs this set is updated with any invariants that are suppressed,
+   * @param ants the antecedents from which antecedents was built
    * @param antecedents array of antecedents per suppressor
    * @param vis current variables for the suppressed invariant As antecedents are chosen, their
    *     variables are placed into vis
@@ -232,11 +233,15 @@ public class NISuppression {
    * @see #consider_inv (Invariant, NISuppressor, VarInfo[])
    */
   private void find_suppressed_invs(
-      Set<NIS.SupInv> unsuppressed_invs, List<Invariant> antecedents[], VarInfo vis[], int idx) {
+      Set<NIS.SupInv> unsuppressed_invs,
+      NIS.Antecedents ants,
+      List<Invariant> antecedents[],
+      VarInfo vis[],
+      int idx) {
 
     // Loop through each antecedent that matches the current suppressor
     NISuppressor s = suppressors[idx];
-    for (Invariant inv : antecedents[idx]) {
+    for (Invariant inv : candidates(ants, antecedents, vis, idx)) {
       PptTopLevel ppt = inv.ppt.parent;
       assert ppt.equality_view != null : "@AssumeAssertion(nullness): need to check justification";
 
@@ -278,7 +283,7 @@ public class NISuppression {
         }
       } else {
         // Recursively process the next suppressor
-        find_suppressed_invs(unsuppressed_invs, antecedents, cvis, idx + 1);
+        find_suppressed_invs(unsuppressed_invs, ants, antecedents, cvis, idx + 1);
       }
     }
   }
@@ -290,6 +295,7 @@ public class NISuppression {
    *
    * @param unsuppressed_invs this set is updated with any invariants that were suppressed, but one
    *     of the suppressors is falsified (thus, the invariant is no longer suppressed)
+   * @param ants the antecedents from which antecedents was built
    * @param antecedents array of antecedents per suppressor
    * @param vis current variables for the suppressed invariant As antecedents are chosen, their
    *     variables are placed into vis
@@ -302,6 +308,7 @@ public class NISuppression {
    */
   private void find_unsuppressed_invs(
       Set<NIS.SupInv> unsuppressed_invs,
+      NIS.Antecedents ants,
       List<Invariant> antecedents[],
       VarInfo vis[],
       int idx,
@@ -312,7 +319,7 @@ public class NISuppression {
 
     // Loop through each antecedent that matches the current suppressor
     NISuppressor s = suppressors[idx];
-    for (Invariant inv : antecedents[idx]) {
+    for (Invariant inv : candidates(ants, antecedents, vis, idx)) {
       PptTopLevel ppt = inv.ppt.parent;
       assert ppt.equality_view != null : "@AssumeAssertion(nullness): need to check justification";
       cinvs[idx] = inv;
@@ -366,6 +373,7 @@ public class NISuppression {
         // Recursively process the next suppressor
         find_unsuppressed_invs(
             unsuppressed_invs,
+            ants,
             antecedents,
             cvis,
             idx + 1,
@@ -376,6 +384,28 @@ public class NISuppression {
     cinvs[idx] = null;
   }
 
+  /**
+   * Returns the antecedents in antecedents[idx] that might be used together with the antecedents
+   * already chosen, whose variables are in vis. If vis already holds a variable of suppressors[idx],
+   * only the antecedents over that variable can match (see {@link #consider_inv}), so they are
+   * looked up in ants rather than scanned. The antecedents are returned in their original order.
+   */
+  private List<Invariant> candidates(
+      NIS.Antecedents ants, List<Invariant>[] antecedents, VarInfo[] vis, int idx) {
+    NISuppressor s = suppressors[idx];
+    VarInfo v1 = vis[s.v1_index];
+    if (v1 != null) {
+      return ants.get(s.get_inv_class(), 0, v1);
+    }
+    if (s.v2_index != -1) {
+      VarInfo v2 = vis[s.v2_index];
+      if (v2 != null) {
+        return ants.get(s.get_inv_class(), 1, v2);
+      }
+    }
+    return antecedents[idx];
+  }
+
   /**
    * Determine if the specified invariant can be used as part of this suppression. The invariant
    * must match suppressor and its variables must match up with any antecedents that have been
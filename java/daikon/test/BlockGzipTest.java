@@ -0,0 +1,137 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.BlockGzip;
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import junit.framework.*;
+
+/**
+ * Writes a block-compressed trace with {@link BlockGzip.Writer}, and checks that it reads back
+ * intact, both as an ordinary gzip file and, through its index, a few blocks at a time.
+ */
+public class BlockGzipTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(BlockGzipTest.class));
+  }
+
+  public BlockGzipTest(String name) {
+    super(name);
+  }
+
+  /** Number of invocations in the trace; enough for it to span many blocks. */
+  private static final int NUM_INVOCATIONS = 5000;
+
+  private File trace;
+
+  /** The lines written to trace. */
+  private List<String> lines = new ArrayList<String>();
+
+  @Override
+  protected void setUp() throws IOException {
+    trace = File.createTempFile("BlockGzipTest", ".dtrace.gz");
+    lines.add("decl-version 2.0");
+    lines.add("");
+    for (int i = 0; i < NUM_INVOCATIONS; i++) {
+      add_sample("Foo.bar(int):::ENTER", i, i);
+      add_sample("Foo.bar(int):::EXIT12", i, i * 2);
+    }
+    BlockGzip.Writer writer = new BlockGzip.Writer(trace.getPath());
+    for (String line : lines) {
+      writer.write_line(line);
+    }
+    writer.close();
+  }
+
+  @Override
+  protected void tearDown() {
+    new File(BlockGzip.index_filename(trace.getPath())).delete();
+    trace.delete();
+  }
+
+  private void add_sample(String ppt_name, int nonce, int x) {
+    lines.add(ppt_name);
+    lines.add("this_invocation_nonce");
+    lines.add(Integer.toString(nonce));
+    lines.add("x");
+    lines.add(Integer.toString(x));
+    lines.add("1");
+    lines.add("");
+  }
+
+  /** Reads lines until readLine returns null, rather than until ready() is false. */
+  private static List<String> read_lines(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    List<String> result = new ArrayList<String>();
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        result.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  public void testPlainGzip() throws IOException {
+    assertEquals(lines, read_lines(new GZIPInputStream(new FileInputStream(trace))));
+  }
+
+  public void testIndex() throws IOException {
+    List<BlockGzip.Block> blocks = BlockGzip.read_index(trace.getPath());
+    assertNotNull(blocks);
+    assertTrue(blocks.size() > 1);
+    assertTrue(blocks.get(0).has_other);
+
+    int samples = 0;
+    for (BlockGzip.Block block : blocks) {
+      assertEquals(block.ppt_names.size(), block.nonces.size());
+      samples += block.ppt_names.size();
+    }
+    assertEquals(2 * NUM_INVOCATIONS, samples);
+    assertEquals(lines, read_lines(BlockGzip.open_blocks(trace.getPath(), blocks)));
+  }
+
+  /** Reads the last block and every other block, which are not adjacent in the file. */
+  public void testSelectedBlocks() throws IOException {
+    List<BlockGzip.Block> blocks = BlockGzip.read_index(trace.getPath());
+    assertNotNull(blocks);
+    List<BlockGzip.Block> selected = new ArrayList<BlockGzip.Block>();
+    Set<Integer> exit_nonces = new HashSet<Integer>();
+    for (int i = 0; i < blocks.size(); i++) {
+      if (i % 2 == 1 || i == blocks.size() - 1) {
+        BlockGzip.Block block = blocks.get(i);
+        selected.add(block);
+        for (int j = 0; j < block.ppt_names.size(); j++) {
+          if (block.ppt_names.get(j).indexOf("EXIT") != -1) {
+            exit_nonces.add(block.nonces.get(j));
+          }
+        }
+      }
+    }
+    assertTrue(selected.size() > 1);
+
+    // Every EXIT in the selected blocks, and only those, is read
+    List<String> read = read_lines(BlockGzip.open_blocks(trace.getPath(), selected));
+    Set<Integer> read_nonces = new HashSet<Integer>();
+    for (int i = 0; i < read.size(); i++) {
+      if (read.get(i).indexOf("EXIT") != -1) {
+        assertEquals("this_invocation_nonce", read.get(i + 1));
+        assertTrue(read_nonces.add(Integer.valueOf(read.get(i + 2))));
+      }
+    }
+    assertEquals(exit_nonces, read_nonces);
+  }
+
+  /** An index that no longer matches its trace is ignored. */
+  public void testStaleIndex() throws IOException {
+    OutputStream out = new FileOutputStream(trace, true);
+    out.write(0);
+    out.close();
+    assertNull(BlockGzip.read_index(trace.getPath()));
+  }
+}
@@ -0,0 +1,167 @@
+package daikon.test;
+
+import daikon.*;
+import java.util.*;
+import junit.framework.*;
+import plume.Intern;
+
+/**
+ * Tests {@link InvocationTable}: lookups and removals among nonces whose probe sequences collide
+ * and wrap around the end of the table, growth of the table, and invocations that are spilled to
+ * the temporary file and read back.
+ */
+public class InvocationTableTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(InvocationTableTest.class));
+  }
+
+  public InvocationTableTest(String name) {
+    super(name);
+  }
+
+  private PptTopLevel ppt;
+
+  @Override
+  protected void setUp() {
+    VarInfo[] vars = {Common.makeIntVarInfo("x"), Common.makeIntVarInfo("y")};
+    ppt = Common.makePptTopLevel("Foo.bar(int, int):::ENTER", vars);
+    FileIO.dkconfig_invocation_spill_age = 0;
+  }
+
+  @Override
+  protected void tearDown() {
+    FileIO.dkconfig_invocation_spill_age = 0;
+  }
+
+  private FileIO.Invocation make_invocation(int n) {
+    Object[] vals = {Intern.internedLong(n), Intern.internedLong(-n)};
+    int[] mods = {ValueTuple.MODIFIED, ValueTuple.UNMODIFIED};
+    return new FileIO.Invocation(ppt, vals, mods);
+  }
+
+  /**
+   * Returns num nonces that all hash to the given slot of a table with 64 slots (and of any table
+   * with up to 2^20 slots, if slot is 62 or 63). Must match the hash in InvocationTable.
+   */
+  private static int[] colliding_nonces(int num, int slot) {
+    int base = 0;
+    while (((base * 0x9E3779B9) & 63) != slot) {
+      base++;
+    }
+    int[] result = new int[num];
+    for (int i = 0; i < num; i++) {
+      result[i] = base + (i << 20);
+    }
+    return result;
+  }
+
+  public void testCollidingNonces() {
+    InvocationTable table = new InvocationTable();
+    // These probe sequences wrap around from the end of the table to its start
+    int[] nonces = colliding_nonces(10, 62);
+    Map<Integer, FileIO.Invocation> expected = new HashMap<Integer, FileIO.Invocation>();
+    for (int i = 0; i < nonces.length; i++) {
+      FileIO.Invocation invok = make_invocation(i);
+      table.put(nonces[i], invok);
+      expected.put(nonces[i], invok);
+    }
+    // Nonces that hash to the last and first slots, among the wrapped-around entries
+    int[] others = {
+      colliding_nonces(1, 63)[0], colliding_nonces(1, 0)[0], colliding_nonces(1, 1)[0]
+    };
+    for (int i = 0; i < others.length; i++) {
+      FileIO.Invocation invok = make_invocation(100 + i);
+      table.put(others[i], invok);
+      expected.put(others[i], invok);
+    }
+    assertEquals(expected.size(), table.size());
+
+    // Remove from the middle, the start, and the wrapped-around end of the
+    // probe sequence, checking every remaining entry after each removal.
+    for (int i : new int[] {4, 0, 9, 7, 1, 8, 2, 3, 5, 6}) {
+      assertSame(expected.remove(nonces[i]), table.remove(nonces[i]));
+      assertFalse(table.containsKey(nonces[i]));
+      assertNull(table.remove(nonces[i]));
+      assertEquals(expected.size(), table.size());
+      for (Map.Entry<Integer, FileIO.Invocation> entry : expected.entrySet()) {
+        assertTrue(table.containsKey(entry.getKey()));
+        assertSame(entry.getValue(), table.get(entry.getKey()));
+      }
+    }
+  }
+
+  public void testReplace() {
+    InvocationTable table = new InvocationTable();
+    FileIO.Invocation second = make_invocation(2);
+    table.put(17, make_invocation(1));
+    table.put(17, second);
+    assertEquals(1, table.size());
+    assertSame(second, table.remove(17));
+    assertTrue(table.isEmpty());
+  }
+
+  public void testRehash() {
+    InvocationTable table = new InvocationTable();
+    FileIO.Invocation[] invoks = new FileIO.Invocation[1000];
+    for (int i = 0; i < invoks.length; i++) {
+      invoks[i] = make_invocation(i);
+      table.put(i, invoks[i]);
+    }
+    assertEquals(invoks.length, table.size());
+    for (int i = 0; i < invoks.length; i += 2) {
+      assertSame(invoks[i], table.remove(i));
+    }
+    int[] keys = table.sorted_keys();
+    assertEquals(invoks.length / 2, keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(2 * i + 1, keys[i]);
+      assertSame(invoks[keys[i]], table.get(keys[i]));
+    }
+  }
+
+  public void testSpill() {
+    FileIO.dkconfig_invocation_spill_age = 10;
+    InvocationTable table = new InvocationTable();
+    FileIO.Invocation[] invoks = new FileIO.Invocation[100];
+    for (int i = 0; i < invoks.length; i++) {
+      invoks[i] = make_invocation(i);
+      table.put(i, invoks[i]);
+    }
+    assertTrue(table.spill_file_size() > 0);
+
+    // The old invocations are read back from the spill file, the new ones are still in memory
+    for (int i = 0; i < invoks.length; i++) {
+      FileIO.Invocation invok = table.remove(i);
+      assertNotNull(invok);
+      assertEquals(invoks[i].format(), invok.format());
+    }
+    assertTrue(table.isEmpty());
+    // Once nothing is spilled, the file is emptied
+    assertEquals(0, table.spill_file_size());
+  }
+
+  public void testSpillCompaction() {
+    FileIO.dkconfig_invocation_spill_age = 1000;
+    InvocationTable table = new InvocationTable();
+    int num = 0;
+    while (table.spill_file_size() < 2 * InvocationTable.MIN_COMPACT_SIZE) {
+      table.put(num, make_invocation(num));
+      num++;
+    }
+    long full_size = table.spill_file_size();
+
+    // Keep every tenth invocation
+    for (int i = 0; i < num; i++) {
+      if (i % 10 != 0) {
+        assertNotNull(table.remove(i));
+      }
+    }
+    assertTrue(table.spill_file_size() < full_size / 2);
+    for (int i = 0; i < num; i += 10) {
+      assertEquals(make_invocation(i).format(), table.remove(i).format());
+    }
+    assertEquals(0, table.spill_file_size());
+  }
+}
@@ -53,6 +53,7 @@ public class MasterUnitTester extends TestCase {
               daikon.test.diff.XorVisitorTester.class,
               daikon.test.InvariantFormatTester.class,
               daikon.test.SampleTester.class,
+              daikon.test.inv.EqualityTester.class,
               daikon.test.inv.InvariantTester.class,
               daikon.test.inv.unary.scalar.OneOfScalarTester.class,
               daikon.test.inv.unary.sequence.OneOfSequenceTester.class,
@@ -68,6 +69,8 @@ public class MasterUnitTester extends TestCase {
               daikon.test.InstructionUtilsTest.class,
               daikon.test.KillerInstructionTests.class,
               daikon.test.DSForestTest.class,
+              daikon.test.BlockGzipTest.class,
+              daikon.test.InvocationTableTest.class,
 
               //       ,
               //       // I'm having trouble with this; need to fix, reinstate, and not call
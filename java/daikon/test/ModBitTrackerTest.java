@@ -118,4 +118,54 @@ public class ModBitTrackerTest extends TestCase {
     oneModBitTrackerTest(5, 10, 0.0);
     oneModBitTrackerTest(100, 1000, 5.0);
   }
+
+  // Appends the samples of a child tracker to a parent that already has
+  // some samples of its own, both with add_all and one sample at a time
+  // with add, and checks that the results are the same.
+  public void oneAddAllTest(int vars, int samples, double duplicate_factor) {
+    BitSet[] child_bitsets = makeBitSets(vars, samples, duplicate_factor);
+    ModBitTracker child = makeModBitTracker(child_bitsets);
+    int child_vars = child_bitsets.length;
+    int child_samples = child_bitsets[0].size();
+
+    // The parent has one variable per child variable, in reverse order,
+    // plus one that is always missing in the child and one that shares
+    // the first child variable.
+    int parent_vars = child_vars + 2;
+    int[] map = new int[parent_vars];
+    for (int i = 0; i < child_vars; i++) {
+      map[i] = child_vars - 1 - i;
+    }
+    map[child_vars] = -1;
+    map[child_vars + 1] = 0;
+
+    BitSet[] parent_bitsets = makeBitSets(parent_vars, samples / 2, 0.0);
+    ModBitTracker bulk = makeModBitTracker(parent_bitsets);
+    ModBitTracker one_by_one = makeModBitTracker(parent_bitsets);
+
+    bulk.add_all(child, map);
+
+    Object[] vals = new Object[parent_vars];
+    int[] mods = new int[parent_vars];
+    ValueTuple vt = ValueTuple.makeUninterned(vals, mods);
+    for (int sampleno = 0; sampleno < child_samples; sampleno++) {
+      for (int var = 0; var < parent_vars; var++) {
+        mods[var] =
+            booleanToModBit((map[var] != -1) && child_bitsets[map[var]].get(sampleno));
+      }
+      one_by_one.add(vt, 1);
+    }
+
+    assertEquals(one_by_one.num_samples(), bulk.num_samples());
+    assertEquals(one_by_one.num_sets(), bulk.num_sets());
+    for (int var = 0; var < parent_vars; var++) {
+      assertEquals(one_by_one.get(var), bulk.get(var));
+    }
+  }
+
+  public void testAddAll() {
+    oneAddAllTest(1, 2, 0.0);
+    oneAddAllTest(5, 10, 1.0);
+    oneAddAllTest(100, 1000, 5.0);
+  }
 }
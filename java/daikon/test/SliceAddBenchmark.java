@@ -0,0 +1,110 @@
+package daikon.test;
+
+import daikon.*;
+import java.lang.management.ManagementFactory;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.interning.qual.*;
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Measures the memory allocated, and the time taken, to add a sample to a program point with many
+ * slices, with and without the {@code daikon.PptTopLevel.reuse_sample_buffers} configuration option.
+ * The program point has only integer variables, whose values are related linearly so that most
+ * unary, binary, and ternary invariants over them stay true and keep being checked. Invoke it like:
+ *
+ * <pre>
+ *   java daikon.test.SliceAddBenchmark [num_vars [num_samples]]
+ * </pre>
+ *
+ * Allocation is measured per thread with {@code com.sun.management.ThreadMXBean}, which is
+ * available in HotSpot-based JVMs.
+ */
+@SuppressWarnings("nullness")
+public class SliceAddBenchmark {
+
+  private static String usage =
+      UtilMDE.joinLines(
+          "Usage: java daikon.test.SliceAddBenchmark [num_vars [num_samples]]",
+          "Reports the bytes allocated and the time taken per sample added to a program point",
+          "with num_vars integer variables (default 12), after num_samples warmup samples",
+          "(default 100000).");
+
+  /** Number of distinct samples, which are presented repeatedly. */
+  private static final int NUM_DISTINCT_SAMPLES = 1000;
+
+  public static void main(String[] args) {
+    if (args.length > 2) {
+      System.out.println(usage);
+      return;
+    }
+    int num_vars = (args.length > 0) ? Integer.parseInt(args[0]) : 12;
+    int num_samples = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    // Instantiate every slice on the first sample, and keep them all.
+    Daikon.use_equality_optimization = false;
+    DynamicConstants.dkconfig_use_dynamic_constant_optimization = false;
+    Daikon.setup_proto_invs();
+    Daikon.setup_NISuppression();
+
+    ValueTuple[] samples = make_samples(num_vars);
+    for (boolean reuse : new boolean[] {false, true}) {
+      PptTopLevel.dkconfig_reuse_sample_buffers = reuse;
+      run(num_vars, num_samples, samples, reuse ? "reuse_sample_buffers" : "default");
+    }
+  }
+
+  /**
+   * Returns samples in which variable i has the value (i+1)*s + i, for a range of s. The samples
+   * are created in advance so that creating them is not measured.
+   */
+  private static ValueTuple[] make_samples(int num_vars) {
+    ValueTuple[] samples = new ValueTuple[NUM_DISTINCT_SAMPLES];
+    for (int s = 0; s < samples.length; s++) {
+      /*@Interned*/ Object[] vals = new /*@Interned*/ Object[num_vars];
+      int[] mods = new int[num_vars];
+      for (int i = 0; i < num_vars; i++) {
+        vals[i] = Intern.internedLong((long) (i + 1) * s + i);
+        mods[i] = ValueTuple.MODIFIED;
+      }
+      samples[s] = new ValueTuple(vals, mods);
+    }
+    return samples;
+  }
+
+  private static void run(int num_vars, int num_samples, ValueTuple[] samples, String mode) {
+    VarInfo[] vars = new VarInfo[num_vars];
+    for (int i = 0; i < num_vars; i++) {
+      vars[i] = Common.makeIntVarInfo("x" + i);
+    }
+    PptTopLevel ppt = Common.makePptTopLevel("daikon.test.SliceAddBenchmark:::POINT", vars);
+
+    // Warm up: instantiate the slices, falsify the invariants that will be
+    // falsified, and let the JIT compile the sample path.
+    for (int i = 0; i < num_samples; i++) {
+      ppt.add_bottom_up(samples[i % samples.length], 1);
+    }
+
+    com.sun.management.ThreadMXBean bean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long bytes_before = bean.getThreadAllocatedBytes(thread);
+    long nanos_before = System.nanoTime();
+    for (int i = 0; i < num_samples; i++) {
+      ppt.add_bottom_up(samples[i % samples.length], 1);
+    }
+    long nanos = System.nanoTime() - nanos_before;
+    long bytes = bean.getThreadAllocatedBytes(thread) - bytes_before;
+
+    System.out.printf(
+        "%-22s %5d slices %8d invariants %10.1f bytes/sample %8.2f us/sample%n",
+        mode,
+        ppt.numViews(),
+        ppt.invariant_cnt(),
+        (double) bytes / num_samples,
+        nanos / 1000.0 / num_samples);
+  }
+}
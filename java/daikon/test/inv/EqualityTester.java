@@ -0,0 +1,86 @@
+package daikon.test.inv;
+
+import daikon.*;
+import daikon.inv.*;
+import daikon.test.*;
+import java.util.*;
+import junit.framework.*;
+import plume.Intern;
+
+/**
+ * Tests {@link Equality#add}: samples that keep every variable in the set, and samples that split
+ * some variables from it, both with and without a static constant among the variables.
+ */
+@SuppressWarnings("nullness") // testing code
+public class EqualityTester extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(EqualityTester.class));
+  }
+
+  public EqualityTester(String name) {
+    super(name);
+  }
+
+  private static VarInfo makeIntConstant(String name, long value) {
+    return new VarInfo(
+        name,
+        ProglangType.INT,
+        ProglangType.INT,
+        VarComparabilityNone.it,
+        true,
+        Intern.internedLong(value),
+        VarInfoAux.getDefault());
+  }
+
+  /** Returns a sample in which each traced variable has the corresponding value. */
+  private static ValueTuple sample(long... values) {
+    Object[] vals = new Object[values.length];
+    int[] mods = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      vals[i] = Intern.internedLong(values[i]);
+      mods[i] = ValueTuple.MODIFIED;
+    }
+    return new ValueTuple(vals, mods);
+  }
+
+  private static Equality makeEquality(VarInfo[] vars) {
+    PptTopLevel ppt = Common.makePptTopLevel("Foo.bar():::ENTER", vars);
+    PptSlice slice = new PptSlice1(ppt, new VarInfo[] {vars[0]});
+    return new Equality(Arrays.asList(vars), slice);
+  }
+
+  public void testAdd() {
+    VarInfo[] vars = {
+      Common.makeIntVarInfo("x"), Common.makeIntVarInfo("y"), Common.makeIntVarInfo("z")
+    };
+    Equality eq = makeEquality(vars);
+
+    assertEquals(Collections.emptyList(), eq.add(sample(5, 5, 5), 1));
+    assertEquals(3, eq.size());
+    assertEquals(Collections.singletonList(vars[1]), eq.add(sample(5, 6, 5), 1));
+    assertEquals(2, eq.size());
+    assertEquals(Collections.emptyList(), eq.add(sample(7, 8, 7), 1));
+  }
+
+  /** The static constant is neither the leader nor the last of the other variables. */
+  public void testAddWithStaticConstant() {
+    VarInfo[] vars = {
+      Common.makeIntVarInfo("x"),
+      makeIntConstant("c", 5),
+      Common.makeIntVarInfo("y"),
+      Common.makeIntVarInfo("z")
+    };
+    Equality eq = makeEquality(vars);
+
+    // x, y and z are traced; c is not
+    assertEquals(Collections.emptyList(), eq.add(sample(5, 5, 5), 1));
+    assertEquals(4, eq.size());
+    assertEquals(Collections.singletonList(vars[3]), eq.add(sample(5, 5, 6), 1));
+    assertEquals(3, eq.size());
+    assertEquals(Collections.singletonList(vars[1]), eq.add(sample(7, 7, 6), 1));
+    assertEquals(2, eq.size());
+    assertEquals(Collections.emptyList(), eq.add(sample(8, 8, 6), 1));
+  }
+}
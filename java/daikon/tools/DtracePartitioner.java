@@ -1,10 +1,17 @@
 // DtracePartitioner.java
 package daikon.tools;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.BlockGzip;
 import java.io.*;
 import java.util.*;
 import plume.*;
 
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
 /**
  * This class partitions Daikon trace files so that invocations of the same program point are
  * grouped together for use with random selection.
@@ -17,6 +24,8 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
   private BufferedReader br;
   // the name of the Daikon trace file
   private String fileName;
+  // the next line of br, read ahead by hasMoreLines, or null
+  private /*@Nullable*/ String nextLine = null;
 
   /** @param filename the Daikon trace file to be partitioned */
   public DtracePartitioner(String filename) {
@@ -33,7 +42,7 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
 
   public boolean hasNext() {
     try {
-      return br.ready();
+      return hasMoreLines();
     } catch (IOException e) {
       e.printStackTrace();
       return false;
@@ -49,7 +58,7 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
     try {
       String ret = grabNextInvocation();
       if (ret.indexOf("EXIT") != -1) {
-        if (!br.ready()) {
+        if (!hasMoreLines()) {
           return "";
         }
         return next();
@@ -69,9 +78,10 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
    */
   private String grabNextInvocation() throws IOException {
     StringBuffer sb = new StringBuffer();
-    while (br.ready()) {
-      String line = br.readLine();
-      assert line != null; // because br.ready() = true
+    while (hasMoreLines()) {
+      String line = nextLine;
+      assert line != null; // because hasMoreLines() = true
+      nextLine = null;
       line = line.trim();
       if (line.equals("")) {
         break;
@@ -81,6 +91,18 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
     return sb.toString();
   }
 
+  /**
+   * Returns true if br has another line, reading it into nextLine. br.ready() is not a test for
+   * the end of the input: it is false wherever the underlying stream would block, such as at the
+   * boundaries between the gzip members of a block-compressed trace.
+   */
+  private boolean hasMoreLines() throws IOException {
+    if (nextLine == null) {
+      nextLine = br.readLine();
+    }
+    return nextLine != null;
+  }
+
   /** Returns the program point name given by the input invocation. */
   public String assignToBucket(String invocation) {
     if (invocation.indexOf(lineSep) == -1) {
@@ -134,8 +156,9 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
       // look for EXIT half of invocations and augment
       // the values of nonceMap so that the map eventually
       // maps nonces --> full invocations with ENTER / EXIT
-      br = UtilMDE.bufferedFileReader(fileName);
-      while (br.ready()) {
+      br = exitReader(nonceMap.keySet());
+      nextLine = null;
+      while (hasMoreLines()) {
         String nextInvo = grabNextInvocation();
         if (nextInvo.indexOf("EXIT") == -1) continue;
         int invoNonce = calcNonce(nextInvo);
@@ -167,6 +190,29 @@ public class DtracePartitioner implements Partitioner<String, String>, Iterator<
     return enters;
   }
 
+  /**
+   * Returns a reader for the part of the trace file that contains the EXIT halves of the given
+   * invocations. If the trace file is block-compressed and has an index, only the blocks that
+   * contain those EXITs are read; otherwise, the whole file is.
+   */
+  private BufferedReader exitReader(Set<Object> nonces) throws IOException {
+    List<BlockGzip.Block> blocks = BlockGzip.read_index(fileName);
+    if (blocks == null) {
+      return UtilMDE.bufferedFileReader(fileName);
+    }
+    List<BlockGzip.Block> exit_blocks = new ArrayList<BlockGzip.Block>();
+    for (BlockGzip.Block block : blocks) {
+      for (int i = 0; i < block.ppt_names.size(); i++) {
+        if (block.ppt_names.get(i).indexOf("EXIT") != -1 && nonces.contains(block.nonces.get(i))) {
+          exit_blocks.add(block);
+          break;
+        }
+      }
+    }
+    return new BufferedReader(
+        new InputStreamReader(BlockGzip.open_blocks(fileName, exit_blocks), UTF_8));
+  }
+
   private int calcNonce(String invocation) {
     StringTokenizer st = new StringTokenizer(invocation, lineSep);
     while (st.hasMoreTokens()) {
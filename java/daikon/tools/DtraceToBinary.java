@@ -0,0 +1,99 @@
+package daikon.tools;
+
+import daikon.*;
+import java.io.*;
+import java.util.*;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Converts a text {@code .dtrace} file to the binary trace format described in {@link
+ * daikon.BinaryDtrace}. Invoke it like:
+ *
+ * <pre>
+ *   java daikon.tools.DtraceToBinary [decls-file...] input.dtrace[.gz] output.dtrace.bin[.gz]
+ * </pre>
+ *
+ * A binary trace contains only samples. When running Daikon on the output, also supply the
+ * declarations: the same {@code .decls} files, or the original text trace's declarations saved to
+ * a {@code .decls} file.
+ */
+public class DtraceToBinary {
+
+  private static String usage =
+      UtilMDE.joinLines(
+          "Usage: java daikon.tools.DtraceToBinary [decls-file...] INPUT OUTPUT",
+          "Writes the samples of text dtrace file INPUT to OUTPUT in binary format.",
+          "If OUTPUT ends in \".gz\", it is compressed.");
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (Daikon.TerminationMessage e) {
+      Daikon.handleTerminationMessage(e);
+    }
+    // Any exception other than Daikon.TerminationMessage gets propagated.
+    // This simplifies debugging by showing the stack trace.
+  }
+
+  /**
+   * This does the work of main, but it never calls System.exit, so it is appropriate to be called
+   * progrmmatically. Termination of the program with a message to the user is indicated by throwing
+   * Daikon.TerminationMessage.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   * @see #main(String[])
+   * @see daikon.Daikon.TerminationMessage
+   */
+  public static void mainHelper(final String[] args) {
+    if (args.length < 2) {
+      throw new Daikon.TerminationMessage(usage);
+    }
+    String input = args[args.length - 2];
+    String output = args[args.length - 1];
+    if (BinaryDtrace.is_binary_dtrace(input)) {
+      throw new Daikon.TerminationMessage(input + " is already a binary dtrace file");
+    }
+
+    List<File> decls = new ArrayList<File>();
+    for (int i = 0; i < args.length - 2; i++) {
+      decls.add(new File(args[i]));
+    }
+
+    try {
+      PptMap ppts = FileIO.read_declaration_files(decls);
+      BinaryDtrace.Writer writer = new BinaryDtrace.Writer(output);
+      try {
+        FileIO.read_data_trace_files(
+            Arrays.asList(input), ppts, new WriteBinaryProcessor(writer), true);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
+  /** Writes each sample, exactly as read, to a binary trace. */
+  public static class WriteBinaryProcessor extends FileIO.Processor {
+
+    private final BinaryDtrace.Writer writer;
+
+    public WriteBinaryProcessor(BinaryDtrace.Writer writer) {
+      this.writer = writer;
+    }
+
+    /*@RequiresNonNull("FileIO.data_trace_state")*/
+    public void process_sample(
+        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, /*@Nullable*/ Integer nonce) {
+      try {
+        writer.write_sample(ppt, vt.vals, vt.mods, nonce);
+      } catch (IOException e) {
+        throw new Error(e);
+      }
+    }
+  }
+}
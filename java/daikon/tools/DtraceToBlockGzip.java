@@ -0,0 +1,75 @@
+package daikon.tools;
+
+import daikon.*;
+import java.io.*;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Converts a text {@code .dtrace} file to the block-compressed format described in {@link
+ * daikon.BlockGzip}, and writes its index. Invoke it like:
+ *
+ * <pre>
+ *   java daikon.tools.DtraceToBlockGzip input.dtrace[.gz] output.dtrace.gz
+ * </pre>
+ *
+ * The output is an ordinary gzipped trace, so it can be used wherever the input could. Daikon,
+ * {@link DtraceDiff}, and {@link DtracePartitioner} (and thus {@link TraceSelect}) use the index,
+ * {@code output.dtrace.gz.idx}, to read only the parts of the trace they need.
+ */
+public class DtraceToBlockGzip {
+
+  private static String usage =
+      UtilMDE.joinLines(
+          "Usage: java daikon.tools.DtraceToBlockGzip INPUT OUTPUT",
+          "Writes text dtrace file INPUT to OUTPUT as independently compressed blocks,",
+          "and writes an index of the blocks to OUTPUT.idx.");
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (Daikon.TerminationMessage e) {
+      Daikon.handleTerminationMessage(e);
+    }
+    // Any exception other than Daikon.TerminationMessage gets propagated.
+    // This simplifies debugging by showing the stack trace.
+  }
+
+  /**
+   * This does the work of main, but it never calls System.exit, so it is appropriate to be called
+   * progrmmatically. Termination of the program with a message to the user is indicated by throwing
+   * Daikon.TerminationMessage.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   * @see #main(String[])
+   * @see daikon.Daikon.TerminationMessage
+   */
+  public static void mainHelper(final String[] args) {
+    if (args.length != 2) {
+      throw new Daikon.TerminationMessage(usage);
+    }
+    String input = args[0];
+    String output = args[1];
+    if (!output.endsWith(".gz")) {
+      throw new Daikon.TerminationMessage("Output file name must end in \".gz\": " + output);
+    }
+
+    try {
+      BufferedReader reader = UtilMDE.bufferedFileReader(input);
+      BlockGzip.Writer writer = new BlockGzip.Writer(output);
+      try {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          writer.write_line(line);
+        }
+      } finally {
+        writer.close();
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+}